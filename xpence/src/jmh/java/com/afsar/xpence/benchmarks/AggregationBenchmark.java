@@ -0,0 +1,77 @@
+package com.afsar.xpence.benchmarks;
+
+import com.afsar.xpence.StatementTotals;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Category-total aggregation: adding one expense per row to StatementTotals (class index
+ * and fixed-point paise), compared with the HashMap<String, Double> update it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark {
+
+    static final int ROWS = 100_000;
+
+    private static final String[] CATEGORIES = {
+        "Other", "Shopping", "Food", "Transport", "Bills", "Entertainment", "Groceries", "Health", "Income"
+    };
+
+    private String[] categories;
+    private int[] categoryIndices;
+    private double[] amounts;
+    private long[] paise;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        categories = new String[ROWS];
+        categoryIndices = new int[ROWS];
+        amounts = new double[ROWS];
+        paise = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            categoryIndices[i] = random.nextInt(CATEGORIES.length);
+            categories[i] = CATEGORIES[categoryIndices[i]];
+            paise[i] = random.nextLong(1, 1_000_000);
+            amounts[i] = paise[i] / 100.0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public StatementTotals addExpenses() {
+        StatementTotals totals = new StatementTotals(CATEGORIES);
+        for (int i = 0; i < ROWS; i++) {
+            totals.addExpense(categoryIndices[i], paise[i]);
+        }
+        return totals;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public HashMap<String, Double> addExpensesBoxedMap() {
+        HashMap<String, Double> categoryTotals = new HashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            categoryTotals.put(categories[i], categoryTotals.getOrDefault(categories[i], 0.0) + amounts[i]);
+        }
+        return categoryTotals;
+    }
+}
\ No newline at end of file
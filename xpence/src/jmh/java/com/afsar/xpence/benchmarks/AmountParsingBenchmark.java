@@ -0,0 +1,84 @@
+package com.afsar.xpence.benchmarks;
+
+import com.afsar.xpence.CsvReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Amount cleaning and parsing: the per-row replaceAll + Double.parseDouble that App
+ * used to run, against CsvReader's in-place double and paise parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AmountParsingBenchmark {
+
+    static final int AMOUNTS = 10_000;
+
+    private String[] amounts;
+    private byte[] column;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        amounts = new String[AMOUNTS];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < AMOUNTS; i++) {
+            long paise = random.nextLong(1, 10_000_000);
+            String amount = String.format("%s₹%,d.%02d", random.nextInt(10) < 8 ? "-" : "", paise / 100, paise % 100);
+            amounts[i] = amount;
+            text.append('"').append(amount).append("\"\n");
+        }
+        column = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The original cleaning step: a regex replace per row, then Double.parseDouble.
+     */
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public void replaceAllThenParseDouble(Blackhole blackhole) {
+        for (String amount : amounts) {
+            blackhole.consume(Double.parseDouble(amount.trim().replaceAll("[₹$,\\s]", "")));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public void csvReaderParseAmount(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(column))) {
+            while (reader.nextRecord()) {
+                blackhole.consume(reader.parseAmount(0));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public void csvReaderParseAmountPaise(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(column))) {
+            while (reader.nextRecord()) {
+                blackhole.consume(reader.parseAmountPaise(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.afsar.xpence.benchmarks;
+
+import com.afsar.xpence.ExpenseCategorizer;
+import com.afsar.xpence.ModelBundle;
+import com.afsar.xpence.SyntheticStatementGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExpenseCategorizer.predictCategory on the Weka models and on the model bundle.
+ * "cold" predictions always miss the prediction cache (it is disabled and every
+ * description has fresh digits); "warm" predictions hit a pre-filled cache.
+ * Run from the xpence directory so the model files can be found.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CategorizerBenchmark {
+
+    static final int DESCRIPTIONS = 4096;
+
+    @Param({"bundle", "weka"})
+    public String model;
+
+    private ExpenseCategorizer coldCategorizer;
+    private ExpenseCategorizer warmCategorizer;
+    private String[] descriptions;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        coldCategorizer = load(model);
+        warmCategorizer = load(model);
+        warmCategorizer.enablePredictionCache(DESCRIPTIONS);
+
+        SyntheticStatementGenerator generator = new SyntheticStatementGenerator(SyntheticStatementGenerator.DEFAULT_SEED);
+        descriptions = new String[DESCRIPTIONS];
+        for (int i = 0; i < DESCRIPTIONS; i++) {
+            descriptions[i] = generator.nextDescription();
+            warmCategorizer.predictCategory(descriptions[i]);
+        }
+    }
+
+    static ExpenseCategorizer load(String model) throws Exception {
+        return model.equals("bundle")
+            ? new ExpenseCategorizer(ModelBundle.load(ModelBundle.DEFAULT_FILE))
+            : new ExpenseCategorizer(1);
+    }
+
+    @Benchmark
+    public String predictCold() throws Exception {
+        return coldCategorizer.predictCategory(descriptions[next++ & (DESCRIPTIONS - 1)]);
+    }
+
+    @Benchmark
+    public String predictWarm() throws Exception {
+        return warmCategorizer.predictCategory(descriptions[next++ & (DESCRIPTIONS - 1)]);
+    }
+
+    /**
+     * Loading the model and making the first prediction, once per fresh iteration.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 5)
+    @Fork(5)
+    public String loadAndFirstPrediction() throws Exception {
+        return load(model).predictCategory("ZOMATO LTD 25109");
+    }
+}
@@ -0,0 +1,83 @@
+package com.afsar.xpence.benchmarks;
+
+import com.afsar.xpence.CsvReader;
+import com.afsar.xpence.SyntheticStatementGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV line parsing: the regex split that App.parseCSVLine used to run on every row
+ * against the streaming CsvReader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+    static final int LINES = 10_000;
+
+    private String[] lines;
+    private byte[] statement;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringWriter out = new StringWriter();
+        new SyntheticStatementGenerator(SyntheticStatementGenerator.DEFAULT_SEED).writeStatement(LINES, out);
+        String text = out.toString();
+        statement = text.getBytes(StandardCharsets.UTF_8);
+        lines = text.substring(text.indexOf('\n') + 1).split("\n");
+    }
+
+    /**
+     * The original App.parseCSVLine implementation.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void regexSplit(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void csvReaderFields(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(statement))) {
+            reader.nextRecord(); // header
+            while (reader.nextRecord()) {
+                blackhole.consume(reader.fieldCount());
+                blackhole.consume(reader.isBlank(1));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void csvReaderDescriptionStrings(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(statement))) {
+            reader.nextRecord(); // header
+            while (reader.nextRecord()) {
+                blackhole.consume(reader.trimmedField(1));
+            }
+        }
+    }
+}
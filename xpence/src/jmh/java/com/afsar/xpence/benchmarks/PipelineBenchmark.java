@@ -0,0 +1,78 @@
+package com.afsar.xpence.benchmarks;
+
+import com.afsar.xpence.ExpenseCategorizer;
+import com.afsar.xpence.ModelBundle;
+import com.afsar.xpence.ParallelIngestor;
+import com.afsar.xpence.StatementProcessor;
+import com.afsar.xpence.StatementTotals;
+import com.afsar.xpence.SyntheticStatementGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end statement processing (read, parse, categorize, aggregate) on synthetic
+ * statements, sequentially and with ParallelIngestor. Statements are generated once
+ * per trial from a fixed seed. Run from the xpence directory so the model bundle can
+ * be found.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public long rows;
+
+    private Path statement;
+    private StatementProcessor processor;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        statement = Files.createTempFile("xpence-bench-" + rows + "-", ".csv");
+        new SyntheticStatementGenerator(SyntheticStatementGenerator.DEFAULT_SEED).writeStatement(rows, statement);
+        processor = new StatementProcessor(new ExpenseCategorizer(ModelBundle.load(ModelBundle.DEFAULT_FILE)));
+
+        // Keep the "Found columns" line each run prints out of the benchmark output
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(statement);
+    }
+
+    @Benchmark
+    public StatementTotals sequential() throws IOException {
+        return processor.processFile(statement.toString());
+    }
+
+    @Benchmark
+    public StatementTotals parallel() throws IOException {
+        return new ParallelIngestor(processor, Runtime.getRuntime().availableProcessors())
+            .processFile(statement.toString());
+    }
+}
@@ -1,25 +1,123 @@
 package com.afsar.xpence;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.awt.GraphicsEnvironment;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class App {
+    private static final int DEFAULT_TOP_MERCHANTS = 10;
+    
     public static void main(String[] args) {
+        // --batch runs headless over many statements and writes summaries to disk instead
+        if (Arrays.asList(args).contains("--batch")) {
+            BatchRunner.main(args);
+            return;
+        }
+        // --serve keeps the categorizer warm and answers classification requests over HTTP
+        if (Arrays.asList(args).contains("--serve")) {
+            ClassificationServer.main(args);
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         ExpenseCategorizer categorizer = null;
         
+        // Optional flags: --parallel enables multi-core ingestion, --threads=N sizes the worker pool,
+        // --pipeline streams rows through reader, parser, categorizer and aggregator stages
+        // (--parsers=N, --categorizers=N, --batch-size=N and --queue-size=N tune it),
+        // --cache-size=N memoizes up to N predictions for repeated descriptions,
+        // --incremental only reads rows appended since the last run's checkpoint,
+        // --metrics=FILE prints pipeline metrics and writes them to FILE in Prometheus format,
+        // --store=FILE saves the categorized transactions to a columnar store,
+        // --from-store=FILE reports from a saved store without re-reading or re-categorizing,
+        // --rollups[=N] adds monthly and weekly breakdowns and the top N (default 10) merchants,
+        // --chart=png|svg renders the chart to a file headlessly instead of opening a window,
+        // --chart-dir=DIR sets where chart files are written and cached,
+        // --dedup=FILE skips transactions already counted from earlier statements recorded in FILE;
+        // a statement already recorded in FILE is processed in full without touching FILE
+        // (--dedup-rows=N sizes a new FILE for N distinct transactions)
+        boolean parallel = false;
+        boolean pipeline = false;
+        int parserThreads = 0;
+        int categorizerThreads = 0;
+        int batchSize = StagedPipeline.DEFAULT_BATCH_SIZE;
+        int queueCapacity = StagedPipeline.DEFAULT_QUEUE_CAPACITY;
+        boolean incremental = false;
+        Path metricsFile = null;
+        Path storeFile = null;
+        Path fromStoreFile = null;
+        int topMerchants = 0;
+        ChartRenderer.Format chartFormat = null;
+        Path chartDir = Path.of(ChartRenderer.DEFAULT_OUTPUT_DIR);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheSize = 0;
+        Path dedupFile = null;
+        long dedupRows = DuplicateDetector.DEFAULT_EXPECTED_ROWS;
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--pipeline")) {
+                pipeline = true;
+            } else if (arg.startsWith("--parsers=")) {
+                parserThreads = intOption(arg, "--parsers=", 1);
+            } else if (arg.startsWith("--categorizers=")) {
+                categorizerThreads = intOption(arg, "--categorizers=", 1);
+            } else if (arg.startsWith("--batch-size=")) {
+                batchSize = intOption(arg, "--batch-size=", 1);
+            } else if (arg.startsWith("--queue-size=")) {
+                queueCapacity = intOption(arg, "--queue-size=", 1);
+            } else if (arg.equals("--incremental")) {
+                incremental = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = intOption(arg, "--threads=", 1);
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheSize = intOption(arg, "--cache-size=", 0);
+            } else if (arg.startsWith("--metrics=")) {
+                metricsFile = Path.of(arg.substring("--metrics=".length()));
+            } else if (arg.startsWith("--store=")) {
+                storeFile = Path.of(arg.substring("--store=".length()));
+            } else if (arg.startsWith("--from-store=")) {
+                fromStoreFile = Path.of(arg.substring("--from-store=".length()));
+            } else if (arg.equals("--rollups")) {
+                topMerchants = DEFAULT_TOP_MERCHANTS;
+            } else if (arg.startsWith("--rollups=")) {
+                topMerchants = intOption(arg, "--rollups=", 0);
+            } else if (arg.startsWith("--chart=")) {
+                chartFormat = ChartRenderer.Format.parse(arg.substring("--chart=".length()));
+                // Before anything touches AWT, so no display connection is ever made
+                System.setProperty("java.awt.headless", "true");
+            } else if (arg.startsWith("--chart-dir=")) {
+                chartDir = Path.of(arg.substring("--chart-dir=".length()));
+            } else if (arg.startsWith("--dedup=")) {
+                dedupFile = Path.of(arg.substring("--dedup=".length()));
+            } else if (arg.startsWith("--dedup-rows=")) {
+                dedupRows = longOption(arg, "--dedup-rows=", 1);
+            }
+        }
+        if (chartFormat == null && GraphicsEnvironment.isHeadless()) {
+            chartFormat = ChartRenderer.Format.PNG; // No window can be opened
+        }
+        
+        if (fromStoreFile != null) {
+            reportFromStore(fromStoreFile, topMerchants, chartFormat, chartDir);
+            scanner.close();
+            return;
+        }
+        
         try {
             // Step 1: Create an instance of ExpenseCategorizer
             System.out.println("Initializing xpence categorizer...");
-            categorizer = new ExpenseCategorizer();
+            categorizer = ExpenseCategorizer.load(threads);
+            categorizer.enablePredictionCache(cacheSize);
             System.out.println("Categorizer loaded successfully!\n");
             
             // Step 2: Prompt user for file path
-            System.out.print("Enter the path to your bank statement CSV file: ");
+            System.out.print("Enter the path to your bank statement (.csv, .csv.gz, .zip or .xlsx): ");
             String filePath = scanner.nextLine().trim();
             
             if (filePath.isEmpty()) {
@@ -27,118 +125,122 @@ public class App {
                 return;
             }
             
-            // Step 3 & 4: Read and parse the CSV file
+            // Step 3: Read, parse and categorize every row of the statement
             System.out.println("Processing file: " + filePath);
+            StatementFormat format = StatementFormat.of(Path.of(filePath));
+            if (!format.isPlainCsv() && (parallel || pipeline || incremental)) {
+                System.out.println("Note: " + format + " statements are read as a single stream; " +
+                                   "ignoring --parallel, --pipeline and --incremental.");
+                parallel = false;
+                pipeline = false;
+                incremental = false;
+            }
             
-            // Step 5: Create HashMap to store spending category totals and income tracker
-            HashMap<String, Double> categoryTotals = new HashMap<>();
-            double totalIncome = 0.0;
-            
-            // Step 6: Process each row of the CSV file
-            int rowCount = 0;
-            int processedRows = 0;
-            
-            try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-                String line;
-                String[] headers = null;
-                int descriptionIndex = -1;
-                int amountIndex = -1;
-                
-                // Read the header row to find column indices
-                if ((line = reader.readLine()) != null) {
-                    headers = parseCSVLine(line);
-                    
-                    // Find the indices of Description and Amount columns
-                    for (int i = 0; i < headers.length; i++) {
-                        String header = headers[i].trim().toLowerCase();
-                        if (header.contains("description") || header.equals("desc")) {
-                            descriptionIndex = i;
-                        } else if (header.contains("amount") || header.equals("amt")) {
-                            amountIndex = i;
-                        }
-                    }
-                    
-                    if (descriptionIndex == -1) {
-                        System.err.println("Error: Could not find 'Description' column in the CSV file.");
-                        System.err.println("Available columns: " + String.join(", ", headers));
-                        return;
-                    }
-                    
-                    if (amountIndex == -1) {
-                        System.err.println("Error: Could not find 'Amount' column in the CSV file.");
-                        System.err.println("Available columns: " + String.join(", ", headers));
-                        return;
-                    }
-                    
-                    System.out.println("Found columns - Description: " + headers[descriptionIndex] + 
-                                     ", Amount: " + headers[amountIndex]);
+            StatementProcessor processor = new StatementProcessor(categorizer);
+            if (topMerchants > 0) {
+                processor.enableRollups(StatementRollups.DEFAULT_MERCHANT_CAPACITY);
+            }
+            DuplicateDetector duplicates = null;
+            if (dedupFile != null && incremental) {
+                System.out.println("Note: --incremental only reads new rows of one statement; ignoring --dedup.");
+            } else if (dedupFile != null) {
+                duplicates = DuplicateDetector.loadOrCreate(dedupFile, dedupRows);
+                DuplicateDetector.StatementId statementId = DuplicateDetector.identify(Path.of(filePath));
+                if (duplicates.hasStatement(statementId)) {
+                    System.out.println("Note: " + filePath + " is already in the duplicate index " + dedupFile +
+                                       "; processing it without duplicate detection.");
+                    duplicates = null;
+                } else {
+                    duplicates.addStatement(statementId);
+                    processor.enableDuplicateDetection(duplicates);
                 }
-                
-                // Process each data row
-                while ((line = reader.readLine()) != null) {
-                    rowCount++;
-                    
-                    if (line.trim().isEmpty()) {
-                        continue; // Skip empty lines
+                if (duplicates != null && parallel && !pipeline) {
+                    System.out.println("Note: --dedup checks rows in file order; using --pipeline instead of --parallel.");
+                    parallel = false;
+                    pipeline = true;
+                }
+            }
+            PipelineMetrics metrics = processor.getMetrics();
+            metrics.registerJfrEvents();
+            PipelineMetrics.StatementProcessedEvent event = PipelineMetrics.beginStatement(filePath);
+            StatementTotals totals;
+            TransactionStore.Builder store = null;
+            if (storeFile != null && incremental) {
+                System.out.println("Note: --store needs every row of the statement; ignoring it with --incremental.");
+            } else if (storeFile != null) {
+                store = new TransactionStore.Builder(processor.getCategoryNames());
+            }
+            ProgressReporter progress = new ProgressReporter(metrics, ProgressReporter.DEFAULT_INTERVAL_MILLIS);
+            try {
+                if (incremental) {
+                    if (parallel || pipeline) {
+                        System.out.println("Note: --incremental reads new rows sequentially; ignoring --parallel and --pipeline.");
                     }
-                    
-                    try {
-                        String[] columns = parseCSVLine(line);
-                        
-                        if (columns.length <= Math.max(descriptionIndex, amountIndex)) {
-                            System.err.println("Warning: Row " + rowCount + " has insufficient columns, skipping.");
-                            continue;
-                        }
-                        
-                        // Step 6a: Get the description
-                        String description = columns[descriptionIndex].trim();
-                        
-                        if (description.isEmpty()) {
-                            System.err.println("Warning: Row " + rowCount + " has empty description, skipping.");
-                            continue;
-                        }
-                        
-                        // Step 6b: Predict the category
-                        String category = categorizer.predictCategory(description);
-                        
-                        // Step 6c: Parse the amount
-                        String amountStr = columns[amountIndex].trim();
-                        // Remove common currency symbols and whitespace
-                        amountStr = amountStr.replaceAll("[₹$,\\s]", "");
-                        
-                        double amount = Double.parseDouble(amountStr);
-                        
-                        // Step 6d: Handle income vs expenses based on amount sign
-                        if (amount > 0) {
-                            // Positive amount = Income - add to income total, don't categorize as expense
-                            totalIncome += amount;
-                        } else if (amount < 0) {
-                            // Negative amount = Expense - add absolute value to spending category
-                            double expenseAmount = Math.abs(amount);
-                            categoryTotals.put(category, categoryTotals.getOrDefault(category, 0.0) + expenseAmount);
-                        }
-                        // Skip zero amounts
-                        
-                        processedRows++;
-                        
-                        // Show progress for large files
-                        if (processedRows % 50 == 0) {
-                            System.out.println("Processed " + processedRows + " transactions...");
-                        }
-                        
-                    } catch (NumberFormatException e) {
-                        System.err.println("Warning: Row " + rowCount + " has invalid amount format, skipping.");
-                    } catch (Exception e) {
-                        System.err.println("Warning: Error processing row " + rowCount + ": " + e.getMessage());
+                    totals = new IncrementalProcessor(processor).processFile(filePath);
+                } else if (pipeline) {
+                    if (parallel) {
+                        System.out.println("Note: --pipeline already uses every core; ignoring --parallel.");
                     }
+                    totals = new StagedPipeline(processor,
+                                                parserThreads > 0 ? parserThreads : Math.max(1, threads / 2),
+                                                categorizerThreads > 0 ? categorizerThreads : threads,
+                                                batchSize, queueCapacity).processFile(filePath, store);
+                } else if (parallel) {
+                    totals = new ParallelIngestor(processor, threads).processFile(filePath, store);
+                } else {
+                    totals = processor.processFile(filePath, store);
+                }
+            } finally {
+                progress.close();
+                metrics.unregisterJfrEvents();
+            }
+            PipelineMetrics.endStatement(event, totals);
+            
+            if (totals == null) {
+                return; // Header problems have already been reported
+            }
+            
+            // Start rendering the chart file in the background while the reports print
+            CompletableFuture<ChartRenderer.Result> chart = chartFormat != null
+                ? renderChartAsync(totals, filePath, chartFormat, chartDir) : null;
+            
+            // Step 4: Print the corrected financial summary report
+            printFinancialSummaryReport(totals);
+            if (totals.getRollups() != null) {
+                printRollupReport(totals, topMerchants);
+            }
+            
+            if (categorizer.getPredictionCache() != null) {
+                System.out.println("Prediction cache: " + categorizer.getPredictionCache());
+            }
+            
+            if (store != null) {
+                store.save(storeFile, totals.getRowCount(), totals.getDuplicateRows());
+                System.out.println("Saved " + store.size() + " transactions to " + storeFile);
+            }
+            
+            if (duplicates != null) {
+                duplicates.save(dedupFile);
+                System.out.println("Duplicate index: " + duplicates + ", saved to " + dedupFile);
+                if (duplicates.getEvicted() > 0 || duplicates.isFull()) {
+                    System.out.println("Warning: The duplicate index is full. It no longer skips duplicates, " +
+                                       "and near capacity it may have dropped genuine transactions as duplicates; " +
+                                       "start a new one with a larger --dedup-rows.");
                 }
             }
             
-            // Step 7: Print the corrected financial summary report
-            printFinancialSummaryReport(categoryTotals, totalIncome, processedRows, rowCount);
+            if (metricsFile != null) {
+                metrics.printSummary();
+                metrics.writePrometheus(metricsFile);
+                System.out.println("Metrics written to " + metricsFile);
+            }
             
-            // Step 8: Generate pie chart visualization
-            generateExpenseChart(categoryTotals, filePath);
+            // Step 5: Generate pie chart visualization
+            if (chartFormat != null) {
+                reportChart(chart);
+            } else {
+                generateExpenseChart(totals, filePath);
+            }
             
         } catch (IOException e) {
             System.err.println("Error reading file: " + e.getMessage());
@@ -152,32 +254,98 @@ public class App {
     }
     
     /**
-     * Parses a CSV line handling quoted fields and commas within quotes
+     * Prints the report and chart of a statement saved with --store, aggregating the
+     * stored columns instead of reading and categorizing the CSV again.
+     * 
+     * @param storeFile Path of the transaction store
+     * @param topMerchants Number of merchants in the rollup report, or 0 for no rollups
+     * @param chartFormat Format of the chart file, or null to open a chart window
+     * @param chartDir Directory chart files are written to
+     */
+    private static void reportFromStore(Path storeFile, int topMerchants, ChartRenderer.Format chartFormat, Path chartDir) {
+        try {
+            long start = System.nanoTime();
+            TransactionStore store = TransactionStore.open(storeFile);
+            StatementTotals totals = topMerchants > 0
+                ? store.aggregate(StatementRollups.DEFAULT_MERCHANT_CAPACITY) : store.aggregate();
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("Aggregated %,d transactions from %s in %.1f ms%n", store.size(), storeFile, millis);
+            CompletableFuture<ChartRenderer.Result> chart = chartFormat != null
+                ? renderChartAsync(totals, storeFile.toString(), chartFormat, chartDir) : null;
+            
+            printFinancialSummaryReport(totals);
+            if (totals.getRollups() != null) {
+                printRollupReport(totals, topMerchants);
+            }
+            if (chartFormat != null) {
+                reportChart(chart);
+            } else {
+                generateExpenseChart(totals, storeFile.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading transaction store: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Parses the value of a numeric option such as --threads=4. A value that is not a
+     * number, or is below the minimum, ends the program with a message naming the option
+     * rather than a stack trace.
+     * 
+     * @param arg The whole argument
+     * @param prefix The option up to and including '=', e.g. "--threads="
+     * @param min Smallest accepted value: 1 for counts and sizes, 0 where 0 turns the feature off
+     * @return The option's value
+     */
+    static int intOption(String arg, String prefix, int min) {
+        return (int) parseOption(arg, prefix, min, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Parses the value of a numeric option that may exceed the int range, such as
+     * --dedup-rows=N. See intOption().
      * 
-     * @param line The CSV line to parse
-     * @return Array of field values
+     * @param arg The whole argument
+     * @param prefix The option up to and including '='
+     * @param min Smallest accepted value
+     * @return The option's value
      */
-    private static String[] parseCSVLine(String line) {
-        // Simple CSV parser - handles basic quoted fields
-        return line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+    static long longOption(String arg, String prefix, long min) {
+        return parseOption(arg, prefix, min, Long.MAX_VALUE);
+    }
+    
+    private static long parseOption(String arg, String prefix, long min, long max) {
+        String value = arg.substring(prefix.length());
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Error: Invalid value for " + prefix.substring(0, prefix.length() - 1) + ": '" + value +
+                           "' (expected a whole number of at least " + min + ")");
+        System.exit(2);
+        return 0; // Not reached
     }
     
     /**
      * Prints a comprehensive financial summary report separating income and expenses
      * 
-     * @param categoryTotals HashMap containing spending category totals
-     * @param totalIncome Total income amount
-     * @param processedRows Number of successfully processed rows
-     * @param totalRows Total number of rows attempted
+     * @param totals Category totals, income and row counts of the statement
      */
-    private static void printFinancialSummaryReport(HashMap<String, Double> categoryTotals, 
-                                                   double totalIncome,
-                                                   int processedRows, int totalRows) {
+    private static void printFinancialSummaryReport(StatementTotals totals) {
+        double totalIncome = StatementTotals.toRupees(totals.getTotalIncomePaise());
+        
         System.out.println("\n" + "=".repeat(60));
         System.out.println("                FINANCIAL SUMMARY REPORT");
         System.out.println("=".repeat(60));
         
-        System.out.println("Processed " + processedRows + " out of " + totalRows + " transactions");
+        System.out.println("Processed " + totals.getProcessedRows() + " out of " + totals.getRowCount() + " transactions");
+        if (totals.getDuplicateRows() > 0) {
+            System.out.println("Skipped " + totals.getDuplicateRows() + " duplicate transactions already counted in earlier statements");
+        }
         System.out.println();
         
         // Section 1: Display Total Income
@@ -190,24 +358,23 @@ public class App {
         System.out.println("EXPENSES BY CATEGORY:");
         System.out.println("-".repeat(30));
         
-        if (categoryTotals.isEmpty()) {
+        if (totals.hasNoExpenses()) {
             System.out.println("No expense transactions found.");
             System.out.println();
         } else {
-            // Calculate total spending for percentage calculations
-            double totalSpending = categoryTotals.values().stream().mapToDouble(Double::doubleValue).sum();
+            // Calculate total spending for percentage calculations (summed exactly in paise)
+            long totalSpendingPaise = totals.getTotalSpendingPaise();
+            double totalSpending = StatementTotals.toRupees(totalSpendingPaise);
             
             // Sort categories by spending amount (highest first) and display
-            categoryTotals.entrySet().stream()
-                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-                .forEach(entry -> {
-                    String category = entry.getKey();
-                    double amount = entry.getValue();
-                    double percentage = totalSpending > 0 ? (amount / totalSpending) * 100 : 0.0;
-                    
-                    System.out.printf("%-20s : ₹%,10.2f (%5.1f%%)%n", 
-                                    category, amount, percentage);
-                });
+            int[] categoriesBySpending = totals.categoriesBySpending();
+            for (int categoryIndex : categoriesBySpending) {
+                long amountPaise = totals.getExpenseTotalPaise(categoryIndex);
+                double percentage = totalSpendingPaise > 0 ? (amountPaise * 100.0) / totalSpendingPaise : 0.0;
+                
+                System.out.printf("%-20s : ₹%,10.2f (%5.1f%%)%n", 
+                                totals.getCategoryName(categoryIndex), StatementTotals.toRupees(amountPaise), percentage);
+            }
             
             System.out.println();
             
@@ -218,14 +385,15 @@ public class App {
             System.out.println();
             
             // Section 4: Calculate and display Net Savings
-            double netSavings = totalIncome - totalSpending;
+            long netSavingsPaise = totals.getTotalIncomePaise() - totalSpendingPaise;
+            double netSavings = StatementTotals.toRupees(netSavingsPaise);
             System.out.println("NET FINANCIAL POSITION:");
             System.out.println("-".repeat(30));
             System.out.printf("Total Income         : ₹%,12.2f%n", totalIncome);
             System.out.printf("Total Spending       : ₹%,12.2f%n", totalSpending);
             System.out.println("-".repeat(35));
             
-            if (netSavings >= 0) {
+            if (netSavingsPaise >= 0) {
                 System.out.printf("Net Savings          : ₹%,12.2f ✓%n", netSavings);
             } else {
                 System.out.printf("Net Deficit          : ₹%,12.2f ⚠%n", Math.abs(netSavings));
@@ -233,7 +401,7 @@ public class App {
             
             // Additional insights
             System.out.println();
-            if (totalIncome > 0) {
+            if (totals.getTotalIncomePaise() > 0) {
                 double savingsRate = (netSavings / totalIncome) * 100;
                 if (savingsRate >= 0) {
                     System.out.printf("Savings Rate         : %6.1f%% of income%n", savingsRate);
@@ -243,10 +411,7 @@ public class App {
             }
             
             // Show top spending category
-            String topCategory = categoryTotals.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse("None");
+            String topCategory = totals.getCategoryName(categoriesBySpending[0]);
             
             System.out.println("Top spending category: " + topCategory);
         }
@@ -255,14 +420,74 @@ public class App {
         System.out.println("Analysis complete!");
     }
     
+    /**
+     * Prints the month by month and week by week breakdown and the top merchants
+     * 
+     * @param totals Statement totals with rollups
+     * @param topMerchants Number of merchants to list
+     */
+    private static void printRollupReport(StatementTotals totals, int topMerchants) {
+        StatementRollups rollups = totals.getRollups();
+        
+        System.out.println("\n" + "=".repeat(60));
+        System.out.println("                    PERIOD BREAKDOWN");
+        System.out.println("=".repeat(60));
+        
+        int[] months = rollups.getMonths();
+        if (months.length == 0) {
+            System.out.println("No dated transactions found.");
+        } else {
+            System.out.println("BY MONTH:");
+            System.out.println("-".repeat(30));
+            System.out.printf("%-8s %14s %14s %14s  %s%n", "Month", "Income", "Spending", "Net", "Top category");
+            for (int month : months) {
+                long income = rollups.getMonthIncomePaise(month);
+                long spending = rollups.getMonthSpendingPaise(month);
+                int topCategory = rollups.getMonthTopCategory(month);
+                System.out.printf("%-8s ₹%,13.2f ₹%,13.2f ₹%,13.2f  %s%n", StatementRollups.formatMonth(month),
+                                StatementTotals.toRupees(income), StatementTotals.toRupees(spending),
+                                StatementTotals.toRupees(income - spending),
+                                topCategory >= 0 ? totals.getCategoryName(topCategory) : "-");
+            }
+            System.out.println();
+            
+            System.out.println("BY WEEK:");
+            System.out.println("-".repeat(30));
+            System.out.printf("%-12s %14s %14s %8s%n", "Week of", "Income", "Spending", "Count");
+            for (int week : rollups.getWeeks()) {
+                System.out.printf("%-12s ₹%,13.2f ₹%,13.2f %,8d%n", LocalDate.ofEpochDay(week),
+                                StatementTotals.toRupees(rollups.getWeekIncomePaise(week)),
+                                StatementTotals.toRupees(rollups.getWeekSpendingPaise(week)),
+                                rollups.getWeekCount(week));
+            }
+        }
+        if (rollups.getUndatedRows() > 0) {
+            System.out.println("Transactions without a readable date: " + rollups.getUndatedRows());
+        }
+        System.out.println();
+        
+        System.out.println("TOP " + topMerchants + " MERCHANTS BY SPENDING:");
+        System.out.println("-".repeat(30));
+        for (StatementRollups.MerchantTotal merchant : rollups.topMerchants(topMerchants)) {
+            System.out.printf("%-32s : ₹%,12.2f (%,d transactions)%n", merchant.merchant(),
+                            StatementTotals.toRupees(merchant.spendingPaise()), merchant.count());
+        }
+        if (!rollups.isMerchantsExact()) {
+            System.out.printf("(More than %,d merchants; ₹%,.2f of spending at smaller merchants is not itemized)%n",
+                            rollups.getMerchantCapacity(),
+                            StatementTotals.toRupees(rollups.getOtherMerchantSpendingPaise()));
+        }
+        System.out.println("=".repeat(60));
+    }
+    
     /**
      * Generates and displays a pie chart visualization of expense data
      * 
-     * @param categoryTotals HashMap containing expense categories and amounts
+     * @param totals Category totals of the statement
      * @param filePath Original file path for chart title
      */
-    private static void generateExpenseChart(HashMap<String, Double> categoryTotals, String filePath) {
-        if (categoryTotals.isEmpty()) {
+    private static void generateExpenseChart(StatementTotals totals, String filePath) {
+        if (totals.hasNoExpenses()) {
             System.out.println("\nNo expense data available for chart generation.");
             return;
         }
@@ -270,17 +495,9 @@ public class App {
         try {
             System.out.println("\nGenerating expense visualization...");
             
-            // Create chart title from file name
-            String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
-            if (fileName.equals(filePath)) {
-                // Handle Windows path separator
-                fileName = filePath.substring(filePath.lastIndexOf("\\") + 1);
-            }
-            String chartTitle = "Expense Breakdown - " + fileName;
-            
             // Generate the pie chart
             PieChartGenerator chartGenerator = new PieChartGenerator();
-            chartGenerator.generatePieChart(categoryTotals, chartTitle);
+            chartGenerator.generatePieChart(totals.toCategoryMap(), chartTitle(filePath));
             
             System.out.println("Chart window opened. Close it when finished viewing.");
             
@@ -289,4 +506,58 @@ public class App {
             System.err.println("Continuing without chart visualization...");
         }
     }
+    
+    /**
+     * Starts rendering the chart to a file on the renderer's background thread
+     * 
+     * @param totals Category totals of the statement
+     * @param filePath Original file path for chart title
+     * @param format Chart file format
+     * @param chartDir Directory chart files are written to and cached in
+     * @return The pending chart, or null if there are no expenses to chart
+     */
+    private static CompletableFuture<ChartRenderer.Result> renderChartAsync(StatementTotals totals, String filePath,
+                                                                            ChartRenderer.Format format, Path chartDir) {
+        if (totals.hasNoExpenses()) {
+            return null;
+        }
+        return new ChartRenderer(chartDir).renderAsync(totals, chartTitle(filePath), format);
+    }
+    
+    /**
+     * Waits for a chart started by renderChartAsync() and reports where it was written
+     * 
+     * @param chart The pending chart, or null if there were no expenses
+     */
+    private static void reportChart(CompletableFuture<ChartRenderer.Result> chart) {
+        if (chart == null) {
+            System.out.println("\nNo expense data available for chart generation.");
+            return;
+        }
+        try {
+            ChartRenderer.Result result = chart.join();
+            if (result.cached()) {
+                System.out.println("\nChart unchanged since the last run: " + result.file());
+            } else {
+                System.out.println("\nChart written to " + result.file());
+            }
+        } catch (CompletionException e) {
+            System.err.println("Error rendering chart: " + e.getCause().getMessage());
+            System.err.println("Continuing without chart visualization...");
+        }
+    }
+    
+    /**
+     * @param filePath Original file path
+     * @return The chart title, naming the file without its directory
+     */
+    private static String chartTitle(String filePath) {
+        // Create chart title from file name
+        String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
+        if (fileName.equals(filePath)) {
+            // Handle Windows path separator
+            fileName = filePath.substring(filePath.lastIndexOf("\\") + 1);
+        }
+        return "Expense Breakdown - " + fileName;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,656 @@
+package com.afsar.xpence;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * BatchRunner is the headless counterpart of the interactive App flow. It expands a
+ * list of files, directories and glob patterns into statements, loads the categorizer
+ * once, processes the statements on a bounded worker pool and writes a JSON summary
+ * per statement plus combined JSON and CSV summaries. No prompts are shown and no
+ * chart is opened, so it can run from cron or CI.
+ *
+ * Usage: java -jar xpence.jar --batch [--out=DIR] [--threads=N] [--cache-size=N] [--metrics=FILE] [--rollups] [--charts=png|svg]
+ *        [--dedup=FILE [--dedup-rows=N]] FILE|DIR|GLOB...
+ *
+ * --metrics=FILE writes the pipeline metrics of the whole run to FILE in Prometheus
+ * text format. --rollups adds spending per month and week and the top merchants to
+ * the JSON summaries; the combined summary merges the rollups of all statements.
+ * --charts=png|svg renders an expense chart per statement into DIR/charts on a
+ * background thread while the remaining statements and summaries are processed.
+ * --dedup=FILE skips transactions already counted from earlier statements, as in the
+ * interactive flow; statements are then processed one at a time in input order so
+ * that each is checked against the ones before it.
+ */
+public class BatchRunner {
+
+    public static final String DEFAULT_OUTPUT_DIR = "xpence-summaries";
+
+    private static final int MAX_WARNINGS_PER_FILE = 1000;
+    private static final int TOP_MERCHANTS = 10;
+
+    /**
+     * Outcome of one statement: totals on success, an error message on failure.
+     */
+    public record FileResult(Path file, StatementTotals totals, long skippedRows,
+                             List<String> warnings, long elapsedMillis, String error) {
+
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    private final StatementProcessor processor;
+    private final int threads;
+    private final Path outputDir;
+    private ChartRenderer.Format chartFormat;
+    private DuplicateDetector duplicates;
+
+    /**
+     * @param categorizer Categorizer shared by all workers
+     * @param threads Number of statements processed at the same time
+     * @param outputDir Directory the summaries are written to (created if missing)
+     */
+    public BatchRunner(ExpenseCategorizer categorizer, int threads, Path outputDir) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        this.processor = new StatementProcessor(categorizer);
+        this.threads = threads;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Renders an expense chart for every statement that has expenses.
+     *
+     * @param format Chart file format
+     */
+    public void enableCharts(ChartRenderer.Format format) {
+        this.chartFormat = format;
+    }
+
+    /**
+     * Skips rows that an earlier statement already counted. Statements are processed one
+     * at a time in the order given, and a statement already recorded in the detector is
+     * processed without it.
+     *
+     * @param detector Detector holding the fingerprints of earlier statements
+     */
+    public void enableDuplicateDetection(DuplicateDetector detector) {
+        this.duplicates = detector;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheSize = 0;
+        Path outputDir = Path.of(DEFAULT_OUTPUT_DIR);
+        Path metricsFile = null;
+        boolean rollups = false;
+        ChartRenderer.Format chartFormat = null;
+        Path dedupFile = null;
+        long dedupRows = DuplicateDetector.DEFAULT_EXPECTED_ROWS;
+        List<String> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--batch")) {
+                continue;
+            } else if (arg.startsWith("--threads=")) {
+                threads = App.intOption(arg, "--threads=", 1);
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheSize = App.intOption(arg, "--cache-size=", 0);
+            } else if (arg.startsWith("--out=")) {
+                outputDir = Path.of(arg.substring("--out=".length()));
+            } else if (arg.startsWith("--metrics=")) {
+                metricsFile = Path.of(arg.substring("--metrics=".length()));
+            } else if (arg.equals("--rollups")) {
+                rollups = true;
+            } else if (arg.startsWith("--charts=")) {
+                chartFormat = ChartRenderer.Format.parse(arg.substring("--charts=".length()));
+                System.setProperty("java.awt.headless", "true");
+            } else if (arg.startsWith("--dedup=")) {
+                dedupFile = Path.of(arg.substring("--dedup=".length()));
+            } else if (arg.startsWith("--dedup-rows=")) {
+                dedupRows = App.longOption(arg, "--dedup-rows=", 1);
+            } else if (arg.startsWith("--")) {
+                System.err.println("Warning: Ignoring unknown option " + arg);
+            } else {
+                inputs.add(arg);
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: --batch [--out=DIR] [--threads=N] [--cache-size=N] [--metrics=FILE] [--rollups] [--charts=png|svg] [--dedup=FILE [--dedup-rows=N]] <file|dir|glob>...");
+            System.exit(2);
+        }
+
+        try {
+            List<Path> files = expandInputs(inputs);
+            if (files.isEmpty()) {
+                System.err.println("Error: No statement files matched " + String.join(" ", inputs));
+                System.exit(2);
+            }
+
+            if (dedupFile != null && threads > 1) {
+                System.out.println("Note: --dedup checks statements in input order; processing them one at a time.");
+                threads = 1;
+            }
+
+            System.out.println("Initializing xpence categorizer...");
+            ExpenseCategorizer categorizer = ExpenseCategorizer.load(threads);
+            categorizer.enablePredictionCache(cacheSize);
+
+            System.out.println("Processing " + files.size() + " statement(s) with " + threads + " worker(s)...");
+            BatchRunner runner = new BatchRunner(categorizer, threads, outputDir);
+            if (rollups) {
+                runner.processor.enableRollups(StatementRollups.DEFAULT_MERCHANT_CAPACITY);
+            }
+            if (chartFormat != null) {
+                runner.enableCharts(chartFormat);
+            }
+            DuplicateDetector duplicates = null;
+            if (dedupFile != null) {
+                duplicates = DuplicateDetector.loadOrCreate(dedupFile, dedupRows);
+                runner.enableDuplicateDetection(duplicates);
+            }
+            PipelineMetrics metrics = runner.processor.getMetrics();
+            metrics.registerJfrEvents();
+            List<FileResult> results;
+            try {
+                results = runner.run(files);
+            } finally {
+                metrics.unregisterJfrEvents();
+            }
+
+            long failed = results.stream().filter(FileResult::failed).count();
+            System.out.println("Summaries written to " + outputDir.toAbsolutePath());
+            if (categorizer.getPredictionCache() != null) {
+                System.out.println("Prediction cache: " + categorizer.getPredictionCache());
+            }
+            if (metricsFile != null) {
+                metrics.writePrometheus(metricsFile);
+                System.out.println("Metrics written to " + metricsFile);
+            }
+            if (duplicates != null) {
+                duplicates.save(dedupFile);
+                System.out.println("Duplicate index: " + duplicates + ", saved to " + dedupFile);
+                if (duplicates.getEvicted() > 0 || duplicates.isFull()) {
+                    System.out.println("Warning: The duplicate index is full. It no longer skips duplicates, " +
+                                       "and near capacity it may have dropped genuine transactions as duplicates; " +
+                                       "start a new one with a larger --dedup-rows.");
+                }
+            }
+            if (failed > 0) {
+                System.err.println(failed + " of " + results.size() + " statement(s) failed.");
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            System.err.println("Error running batch: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Expands files, directories (searched recursively for .csv, .csv.gz, .zip and .xlsx
+     * statements) and glob patterns such as statements/2024-*.csv or exports/**.csv into
+     * a list of files. Each input contributes its matches in sorted order and duplicates
+     * are dropped.
+     *
+     * @param inputs Command line inputs
+     * @return The statement files, in input order
+     * @throws IOException If an input does not exist or a directory cannot be listed
+     */
+    public static List<Path> expandInputs(List<String> inputs) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String input : inputs) {
+            if (isGlob(input)) {
+                files.addAll(expandGlob(input));
+                continue;
+            }
+            Path path = Path.of(input);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile)
+                        .filter(StatementFormat::isStatementFile)
+                        .sorted()
+                        .forEach(files::add);
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(path);
+            } else {
+                throw new IOException("No such file or directory: " + input);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        // Walk from the deepest directory before the first wildcard and match the rest
+        String normalized = pattern.replace('\\', '/');
+        int firstWildcard = 0;
+        while ("*?[{".indexOf(normalized.charAt(firstWildcard)) < 0) {
+            firstWildcard++;
+        }
+        int baseEnd = normalized.lastIndexOf('/', firstWildcard);
+        Path base = baseEnd < 0 ? Path.of(".") : Path.of(baseEnd == 0 ? "/" : normalized.substring(0, baseEnd));
+        String relativePattern = normalized.substring(baseEnd + 1);
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        int maxDepth = relativePattern.contains("**")
+            ? Integer.MAX_VALUE
+            : (int) relativePattern.chars().filter(c -> c == '/').count() + 1;
+        try (Stream<Path> walk = Files.walk(base, maxDepth)) {
+            return walk.filter(Files::isRegularFile)
+                       .filter(p -> matcher.matches(base.relativize(p)))
+                       .map(p -> baseEnd < 0 ? base.relativize(p) : p)
+                       .sorted()
+                       .toList();
+        }
+    }
+
+    /**
+     * Processes the statements and writes all summaries.
+     *
+     * @param files Statements to process
+     * @return One result per file, in the order given
+     * @throws Exception If a worker is interrupted or the summaries cannot be written
+     */
+    public List<FileResult> run(List<Path> files) throws Exception {
+        Files.createDirectories(outputDir);
+        List<String> summaryNames = summaryNames(files);
+
+        ChartRenderer charts = chartFormat != null ? new ChartRenderer(outputDir.resolve("charts")) : null;
+        List<CompletableFuture<ChartRenderer.Result>> chartFutures = new CopyOnWriteArrayList<>();
+
+        // A single worker takes the statements in order, as the duplicate detector requires
+        ExecutorService pool = Executors.newFixedThreadPool(duplicates != null ? 1 : Math.min(threads, files.size()));
+        List<FileResult> results = new ArrayList<>(files.size());
+        try {
+            AtomicInteger completed = new AtomicInteger();
+            List<Future<FileResult>> futures = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                Path summary = outputDir.resolve(summaryNames.get(i) + ".summary.json");
+                futures.add(pool.submit(() -> {
+                    FileResult result = processStatement(file);
+                    if (charts != null && !result.failed() && !result.totals().hasNoExpenses()) {
+                        chartFutures.add(charts.renderAsync(result.totals(),
+                                                            "Expense Breakdown - " + file.getFileName(), chartFormat));
+                    }
+                    writeString(summary, toJson(result));
+                    printProgress(result, completed.incrementAndGet(), files.size());
+                    return result;
+                }));
+            }
+            for (Future<FileResult> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        writeString(outputDir.resolve("combined-summary.json"), combinedJson(results));
+        writeString(outputDir.resolve("combined-summary.csv"), combinedCsv(results));
+        if (charts != null) {
+            reportCharts(chartFutures);
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the charts rendered in the background and reports how many were written.
+     */
+    private void reportCharts(List<CompletableFuture<ChartRenderer.Result>> chartFutures) {
+        int written = 0;
+        int unchanged = 0;
+        for (CompletableFuture<ChartRenderer.Result> future : chartFutures) {
+            try {
+                if (future.join().cached()) {
+                    unchanged++;
+                } else {
+                    written++;
+                }
+            } catch (CompletionException e) {
+                System.err.println("Error rendering chart: " + e.getCause().getMessage());
+            }
+        }
+        System.out.println("Charts: " + written + " written, " + unchanged + " unchanged in " +
+                           outputDir.resolve("charts").toAbsolutePath());
+    }
+
+    private FileResult processStatement(Path file) {
+        long start = System.nanoTime();
+        List<String> warnings = new ArrayList<>();
+        long[] skipped = new long[1];
+        PipelineMetrics.StatementProcessedEvent event = PipelineMetrics.beginStatement(file.toString());
+        try {
+            DuplicateDetector.StatementId statementId = null;
+            if (duplicates != null) {
+                statementId = DuplicateDetector.identify(file);
+                if (duplicates.hasStatement(statementId)) {
+                    System.out.println("Note: " + file + " is already in the duplicate index; " +
+                                       "processing it without duplicate detection.");
+                    statementId = null;
+                }
+                processor.enableDuplicateDetection(statementId != null ? duplicates : null);
+            }
+            StatementTotals totals = processor.processFile(file.toString(), warning -> {
+                if (skipped[0]++ < MAX_WARNINGS_PER_FILE) {
+                    warnings.add(warning);
+                }
+            });
+            if (statementId != null) {
+                duplicates.addStatement(statementId);
+            }
+            PipelineMetrics.endStatement(event, totals);
+            return new FileResult(file, totals, skipped[0], warnings, elapsedMillis(start), null);
+        } catch (Exception e) {
+            PipelineMetrics.endStatement(event, null);
+            return new FileResult(file, null, skipped[0], warnings, elapsedMillis(start),
+                                  e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static void printProgress(FileResult result, int done, int total) {
+        if (result.failed()) {
+            System.err.printf("[%d/%d] %s: FAILED - %s%n", done, total, result.file(), result.error());
+        } else {
+            System.out.printf("[%d/%d] %s: %d of %d transactions processed in %d ms%n", done, total,
+                              result.file(), result.totals().getProcessedRows(), result.totals().getRowCount(),
+                              result.elapsedMillis());
+        }
+    }
+
+    /**
+     * Picks a summary file name per statement from its base name, adding a numeric
+     * suffix when two statements in different directories share a name.
+     */
+    private static List<String> summaryNames(List<Path> files) {
+        Set<String> used = new HashSet<>();
+        List<String> names = new ArrayList<>(files.size());
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot);
+            }
+            String candidate = name;
+            for (int n = 2; !used.add(candidate.toLowerCase(Locale.ROOT)); n++) {
+                candidate = name + "-" + n;
+            }
+            names.add(candidate);
+        }
+        return names;
+    }
+
+    private static void writeString(Path path, String content) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------
+    // Summary formats
+    // ---------------------------------------------------------------------------------
+
+    /**
+     * @return The JSON summary of one statement
+     */
+    static String toJson(FileResult result) {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\n");
+        appendStatementFields(json, result, "  ");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static void appendStatementFields(StringBuilder json, FileResult result, String indent) {
+        json.append(indent).append("\"file\": ").append(jsonString(result.file().toString())).append(",\n");
+        json.append(indent).append("\"status\": ").append(result.failed() ? "\"error\"" : "\"ok\"").append(",\n");
+        json.append(indent).append("\"elapsedMillis\": ").append(result.elapsedMillis()).append(",\n");
+        if (result.failed()) {
+            json.append(indent).append("\"error\": ").append(jsonString(result.error())).append('\n');
+            return;
+        }
+        appendTotalsFields(json, result.totals(), result.skippedRows(), indent);
+        json.append(",\n").append(indent).append("\"warnings\": [");
+        for (int i = 0; i < result.warnings().size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  ")
+                .append(jsonString(result.warnings().get(i)));
+        }
+        json.append(result.warnings().isEmpty() ? "]\n" : "\n" + indent + "]\n");
+    }
+
+    private static void appendTotalsFields(StringBuilder json, StatementTotals totals, long skippedRows, String indent) {
+        long totalSpending = totals.getTotalSpendingPaise();
+        json.append(indent).append("\"rows\": ").append(totals.getRowCount()).append(",\n");
+        json.append(indent).append("\"processedRows\": ").append(totals.getProcessedRows()).append(",\n");
+        json.append(indent).append("\"skippedRows\": ").append(skippedRows).append(",\n");
+        json.append(indent).append("\"duplicateRows\": ").append(totals.getDuplicateRows()).append(",\n");
+        json.append(indent).append("\"totalIncome\": ").append(money(totals.getTotalIncomePaise())).append(",\n");
+        json.append(indent).append("\"totalSpending\": ").append(money(totalSpending)).append(",\n");
+        json.append(indent).append("\"netSavings\": ").append(money(totals.getTotalIncomePaise() - totalSpending)).append(",\n");
+        json.append(indent).append("\"categories\": {");
+        int[] categories = totals.categoriesBySpending();
+        for (int i = 0; i < categories.length; i++) {
+            int c = categories[i];
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  ")
+                .append(jsonString(totals.getCategoryName(c))).append(": {")
+                .append("\"total\": ").append(money(totals.getExpenseTotalPaise(c)))
+                .append(", \"count\": ").append(totals.getExpenseCount(c))
+                .append(", \"min\": ").append(money(totals.getMinExpensePaise(c)))
+                .append(", \"max\": ").append(money(totals.getMaxExpensePaise(c))).append('}');
+        }
+        json.append(categories.length == 0 ? "}" : "\n" + indent + "}");
+        if (totals.getRollups() != null) {
+            appendRollupFields(json, totals, indent);
+        }
+    }
+
+    private static void appendRollupFields(StringBuilder json, StatementTotals totals, String indent) {
+        StatementRollups rollups = totals.getRollups();
+        json.append(",\n").append(indent).append("\"months\": {");
+        int[] months = rollups.getMonths();
+        for (int i = 0; i < months.length; i++) {
+            int month = months[i];
+            int topCategory = rollups.getMonthTopCategory(month);
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  ")
+                .append(jsonString(StatementRollups.formatMonth(month))).append(": {")
+                .append("\"income\": ").append(money(rollups.getMonthIncomePaise(month)))
+                .append(", \"spending\": ").append(money(rollups.getMonthSpendingPaise(month)))
+                .append(", \"count\": ").append(rollups.getMonthCount(month))
+                .append(", \"topCategory\": ").append(topCategory >= 0 ? jsonString(totals.getCategoryName(topCategory)) : "null")
+                .append('}');
+        }
+        json.append(months.length == 0 ? "}" : "\n" + indent + "}");
+
+        json.append(",\n").append(indent).append("\"weeks\": {");
+        int[] weeks = rollups.getWeeks();
+        for (int i = 0; i < weeks.length; i++) {
+            int week = weeks[i];
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  ")
+                .append(jsonString(LocalDate.ofEpochDay(week).toString())).append(": {")
+                .append("\"income\": ").append(money(rollups.getWeekIncomePaise(week)))
+                .append(", \"spending\": ").append(money(rollups.getWeekSpendingPaise(week)))
+                .append(", \"count\": ").append(rollups.getWeekCount(week)).append('}');
+        }
+        json.append(weeks.length == 0 ? "}" : "\n" + indent + "}");
+        json.append(",\n").append(indent).append("\"undatedRows\": ").append(rollups.getUndatedRows());
+
+        json.append(",\n").append(indent).append("\"topMerchants\": [");
+        List<StatementRollups.MerchantTotal> merchants = rollups.topMerchants(TOP_MERCHANTS);
+        for (int i = 0; i < merchants.size(); i++) {
+            StatementRollups.MerchantTotal merchant = merchants.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append("  {")
+                .append("\"merchant\": ").append(jsonString(merchant.merchant()))
+                .append(", \"spending\": ").append(money(merchant.spendingPaise()))
+                .append(", \"count\": ").append(merchant.count()).append('}');
+        }
+        json.append(merchants.isEmpty() ? "]" : "\n" + indent + "]");
+        json.append(",\n").append(indent).append("\"merchantsExact\": ").append(rollups.isMerchantsExact());
+    }
+
+    /**
+     * @return The JSON summary of the whole batch, including every statement
+     */
+    String combinedJson(List<FileResult> results) {
+        StatementTotals combined = processor.newTotals();
+        long skippedRows = 0;
+        long failed = 0;
+        for (FileResult result : results) {
+            if (result.failed()) {
+                failed++;
+            } else {
+                combined.merge(result.totals());
+                skippedRows += result.skippedRows();
+            }
+        }
+
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        json.append("  \"files\": ").append(results.size()).append(",\n");
+        json.append("  \"failedFiles\": ").append(failed).append(",\n");
+        appendTotalsFields(json, combined, skippedRows, "  ");
+        json.append(",\n  \"statements\": [");
+        for (int i = 0; i < results.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append("    {\n");
+            appendStatementFields(json, results.get(i), "      ");
+            json.append("    }");
+        }
+        json.append(results.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return One CSV row per statement plus a TOTAL row, with a column per category
+     */
+    String combinedCsv(List<FileResult> results) {
+        StatementTotals combined = processor.newTotals();
+        long skippedRows = 0;
+        for (FileResult result : results) {
+            if (!result.failed()) {
+                combined.merge(result.totals());
+                skippedRows += result.skippedRows();
+            }
+        }
+
+        // A column for every category that has expenses in any statement
+        int[] categories = new int[combined.getCategoryCount()];
+        int used = 0;
+        for (int c = 0; c < categories.length; c++) {
+            if (combined.getExpenseCount(c) > 0) {
+                categories[used++] = c;
+            }
+        }
+        categories = Arrays.copyOf(categories, used);
+
+        StringBuilder csv = new StringBuilder(1024);
+        csv.append("file,status,rows,processed_rows,skipped_rows,duplicate_rows,total_income,total_spending,net_savings");
+        for (int c : categories) {
+            csv.append(',').append(csvField(combined.getCategoryName(c)));
+        }
+        csv.append('\n');
+
+        for (FileResult result : results) {
+            csv.append(csvField(result.file().toString())).append(',');
+            if (result.failed()) {
+                csv.append(csvField("error: " + result.error())).append(",,,,,,,");
+                csv.append(",".repeat(categories.length)).append('\n');
+            } else {
+                appendCsvTotals(csv, "ok", result.totals(), result.skippedRows(), categories);
+            }
+        }
+        csv.append("TOTAL,");
+        appendCsvTotals(csv, "", combined, skippedRows, categories);
+        return csv.toString();
+    }
+
+    private static void appendCsvTotals(StringBuilder csv, String status, StatementTotals totals,
+                                        long skippedRows, int[] categories) {
+        long totalSpending = totals.getTotalSpendingPaise();
+        csv.append(status).append(',')
+           .append(totals.getRowCount()).append(',')
+           .append(totals.getProcessedRows()).append(',')
+           .append(skippedRows).append(',')
+           .append(totals.getDuplicateRows()).append(',')
+           .append(money(totals.getTotalIncomePaise())).append(',')
+           .append(money(totalSpending)).append(',')
+           .append(money(totals.getTotalIncomePaise() - totalSpending));
+        for (int c : categories) {
+            csv.append(',').append(money(totals.getExpenseTotalPaise(c)));
+        }
+        csv.append('\n');
+    }
+
+    private static String money(long paise) {
+        return StatementTotals.formatPaise(paise);
+    }
+
+    static String jsonString(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.afsar.xpence;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal InputStream view of a ByteBuffer (typically a memory-mapped file region)
+ * that does not disturb the caller's buffer position.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer source;
+
+    ByteBufferInputStream(ByteBuffer source) {
+        this.source = source.slice();
+    }
+
+    @Override
+    public int read() {
+        return source.hasRemaining() ? source.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, source.remaining());
+        source.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return source.remaining();
+    }
+}
@@ -0,0 +1,311 @@
+package com.afsar.xpence;
+
+import org.jfree.chart.ChartColor;
+import org.jfree.chart.ChartUtils;
+import org.jfree.chart.JFreeChart;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ChartRenderer draws the expense pie chart straight to a PNG or SVG file without
+ * opening a window, so it works on headless servers (java.awt.headless=true).
+ *
+ * PNG output is the PieChartGenerator chart, encoded by JFreeChart while it is
+ * streamed to the file. SVG output is written element by element from the category
+ * totals with the same slice order, colors and labels; it needs no Java2D at all.
+ *
+ * Charts are cached in the output directory under a SHA-256 of the format, size,
+ * title and category totals: a re-run on unchanged data finds the file and skips
+ * rendering. Files are written to a temporary name and moved into place, so a cached
+ * chart is always complete. renderAsync() renders on a background thread so the
+ * caller can print or write its reports meanwhile.
+ */
+public class ChartRenderer {
+
+    public static final String DEFAULT_OUTPUT_DIR = "xpence-charts";
+    public static final int DEFAULT_WIDTH = 800;
+    public static final int DEFAULT_HEIGHT = 600;
+
+    // One renderer thread: charts are rendered one at a time, behind the reports
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "xpence-chart");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Output file formats.
+     */
+    public enum Format {
+        PNG, SVG;
+
+        /**
+         * @param name "png" or "svg", in any case
+         * @return The format
+         * @throws IllegalArgumentException If the name is not a known format
+         */
+        public static Format parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+
+        public String extension() {
+            return "." + name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * A chart file and whether it was already in the cache.
+     */
+    public record Result(Path file, boolean cached) {
+    }
+
+    private final Path outputDir;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param outputDir Directory the charts are written to and cached in (created if missing)
+     * @param width Chart width in pixels
+     * @param height Chart height in pixels
+     */
+    public ChartRenderer(Path outputDir, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid chart size " + width + "x" + height);
+        }
+        this.outputDir = outputDir;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a renderer for charts of the default size.
+     *
+     * @param outputDir Directory the charts are written to and cached in
+     */
+    public ChartRenderer(Path outputDir) {
+        this(outputDir, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Renders a chart on the background renderer thread.
+     *
+     * @param totals Statement totals; must have expenses
+     * @param title Chart title
+     * @param format Output format
+     * @return The chart file once it exists; completes exceptionally if rendering fails
+     */
+    public CompletableFuture<Result> renderAsync(StatementTotals totals, String title, Format format) {
+        // Snapshot the figures now: the caller may keep using the totals
+        LinkedHashMap<String, Long> expenses = expensesBySpending(totals);
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        EXECUTOR.execute(() -> {
+            try {
+                future.complete(render(expenses, title, format));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Renders a chart on the calling thread, or returns the cached file.
+     *
+     * @param totals Statement totals; must have expenses
+     * @param title Chart title
+     * @param format Output format
+     * @return The chart file
+     * @throws IOException If the file cannot be written
+     */
+    public Result render(StatementTotals totals, String title, Format format) throws IOException {
+        return render(expensesBySpending(totals), title, format);
+    }
+
+    /**
+     * @return The file a chart of these totals is cached in, whether or not it exists yet
+     */
+    public Path chartPath(StatementTotals totals, String title, Format format) {
+        return chartPath(expensesBySpending(totals), title, format);
+    }
+
+    private Result render(LinkedHashMap<String, Long> expenses, String title, Format format) throws IOException {
+        if (expenses.isEmpty()) {
+            throw new IllegalArgumentException("No expenses to chart");
+        }
+        Path file = chartPath(expenses, title, format);
+        if (Files.isRegularFile(file)) {
+            return new Result(file, true);
+        }
+
+        Files.createDirectories(outputDir);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                if (format == Format.PNG) {
+                    writePng(out, expenses, title);
+                } else {
+                    writeSvg(out, expenses, title);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new Result(file, false);
+    }
+
+    private void writePng(OutputStream out, LinkedHashMap<String, Long> expenses, String title) throws IOException {
+        LinkedHashMap<String, Double> rupees = new LinkedHashMap<>();
+        expenses.forEach((category, paise) -> rupees.put(category, StatementTotals.toRupees(paise)));
+        JFreeChart chart = new PieChartGenerator().createPieChart(rupees, title);
+        ChartUtils.writeChartAsPNG(out, chart, width, height);
+    }
+
+    /**
+     * Writes the pie as SVG: title at the top, slices clockwise from 12 o'clock in
+     * JFreeChart's default colors with "name (percent)" labels, legend at the bottom.
+     */
+    private void writeSvg(OutputStream stream, LinkedHashMap<String, Long> expenses, String title) throws IOException {
+        long total = 0;
+        for (long paise : expenses.values()) {
+            total += paise;
+        }
+        Paint[] colors = ChartColor.createDefaultPaintArray();
+
+        int legendRows = 1 + (expenses.size() - 1) / Math.max(1, width / 160);
+        double cx = width / 2.0;
+        double cy = 40 + (height - 40 - 24 * legendRows - 10) / 2.0;
+        double radius = Math.max(10, Math.min(width * 0.3, (height - 40 - 24 * legendRows - 10) / 2.0 - 45));
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write(String.format(Locale.ROOT,
+            "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\" " +
+            "font-family=\"SansSerif, sans-serif\">\n", width, height, width, height));
+        out.write("<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+        out.write(String.format(Locale.ROOT,
+            "<text x=\"%.1f\" y=\"28\" text-anchor=\"middle\" font-size=\"16\" font-weight=\"bold\" fill=\"%s\">%s</text>\n",
+            cx, hex(Color.DARK_GRAY), escape(title)));
+
+        // Slices and their labels
+        double angle = 0; // degrees clockwise from 12 o'clock
+        int i = 0;
+        for (var entry : expenses.entrySet()) {
+            double extent = 360.0 * entry.getValue() / total;
+            String fill = hex(colors[i % colors.length]);
+            if (expenses.size() == 1) {
+                out.write(String.format(Locale.ROOT,
+                    "<circle cx=\"%.2f\" cy=\"%.2f\" r=\"%.2f\" fill=\"%s\" stroke=\"#ffffff\" stroke-width=\"2\"/>\n",
+                    cx, cy, radius, fill));
+            } else {
+                double[] from = point(cx, cy, radius, angle);
+                double[] to = point(cx, cy, radius, angle + extent);
+                out.write(String.format(Locale.ROOT,
+                    "<path d=\"M%.2f,%.2f L%.2f,%.2f A%.2f,%.2f 0 %d,1 %.2f,%.2f Z\" fill=\"%s\" stroke=\"#ffffff\" stroke-width=\"2\"/>\n",
+                    cx, cy, from[0], from[1], radius, radius, extent > 180 ? 1 : 0, to[0], to[1], fill));
+            }
+            double[] label = point(cx, cy, radius + 18, angle + extent / 2);
+            String anchor = label[0] < cx - 1 ? "end" : label[0] > cx + 1 ? "start" : "middle";
+            out.write(String.format(Locale.ROOT,
+                "<text x=\"%.2f\" y=\"%.2f\" text-anchor=\"%s\" font-size=\"11\" fill=\"#333333\">%s (%.0f%%)</text>\n",
+                label[0], label[1] + 4, anchor, escape(entry.getKey()), 100.0 * entry.getValue() / total));
+            angle += extent;
+            i++;
+        }
+
+        // Legend, wrapped into rows
+        int perRow = Math.max(1, width / 160);
+        i = 0;
+        for (String category : expenses.keySet()) {
+            int row = i / perRow;
+            int column = i % perRow;
+            int inRow = Math.min(perRow, expenses.size() - row * perRow);
+            double x = cx - inRow * 80.0 + column * 160.0 + 10;
+            double y = height - 24.0 * (legendRows - row) - 4;
+            out.write(String.format(Locale.ROOT,
+                "<rect x=\"%.1f\" y=\"%.1f\" width=\"10\" height=\"10\" fill=\"%s\"/>" +
+                "<text x=\"%.1f\" y=\"%.1f\" font-size=\"11\" fill=\"#333333\">%s</text>\n",
+                x, y, hex(colors[i % colors.length]), x + 14, y + 9, escape(category)));
+            i++;
+        }
+        out.write("</svg>\n");
+        out.flush();
+    }
+
+    private Path chartPath(LinkedHashMap<String, Long> expenses, String title, Format format) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        StringBuilder key = new StringBuilder(256);
+        key.append(format).append('\n').append(width).append('x').append(height).append('\n').append(title).append('\n');
+        expenses.forEach((category, paise) -> key.append(category).append('=').append(paise).append('\n'));
+        byte[] hash = digest.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+        return outputDir.resolve("chart-" + HexFormat.of().formatHex(hash, 0, 16) + format.extension());
+    }
+
+    /**
+     * @return Category name -> expense total in paise, highest spending first
+     */
+    private static LinkedHashMap<String, Long> expensesBySpending(StatementTotals totals) {
+        LinkedHashMap<String, Long> expenses = new LinkedHashMap<>();
+        for (int c : totals.categoriesBySpending()) {
+            long paise = totals.getExpenseTotalPaise(c);
+            if (paise > 0) {
+                expenses.put(totals.getCategoryName(c), paise);
+            }
+        }
+        return expenses;
+    }
+
+    private static double[] point(double cx, double cy, double radius, double degrees) {
+        double radians = Math.toRadians(degrees);
+        return new double[] { cx + radius * Math.sin(radians), cy - radius * Math.cos(radians) };
+    }
+
+    private static String hex(Paint paint) {
+        Color color = paint instanceof Color c ? c : Color.GRAY;
+        return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '&' -> escaped.append("&amp;");
+                case '"' -> escaped.append("&quot;");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.afsar.xpence;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClassificationLoadTest drives a running ClassificationServer with a fixed number of
+ * concurrent clients, each on a virtual thread sending its next request as soon as
+ * the previous one is answered (a closed loop). Descriptions come from
+ * SyntheticStatementGenerator, so they look like real statement rows. Requests made
+ * during the warm-up are not measured. The report gives requests and descriptions per
+ * second, latency percentiles as seen by the clients, and the server's batch statistics.
+ *
+ * Usage: java -cp xpence.jar com.afsar.xpence.ClassificationLoadTest [--url=http://127.0.0.1:8765] [--clients=N] [--seconds=N] [--warmup=N] [--bulk=N]
+ *
+ * --bulk=N sends N descriptions per request to /classify/bulk instead of one to /classify.
+ */
+public class ClassificationLoadTest {
+
+    private static final int DESCRIPTION_POOL_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://127.0.0.1:" + ClassificationServer.DEFAULT_PORT;
+        int clients = 64;
+        int seconds = 10;
+        int warmupSeconds = 2;
+        int bulk = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--url=")) {
+                url = arg.substring("--url=".length());
+            } else if (arg.startsWith("--clients=")) {
+                clients = App.intOption(arg, "--clients=", 1);
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = App.intOption(arg, "--seconds=", 1);
+            } else if (arg.startsWith("--warmup=")) {
+                warmupSeconds = App.intOption(arg, "--warmup=", 0);
+            } else if (arg.startsWith("--bulk=")) {
+                bulk = App.intOption(arg, "--bulk=", 0);
+            } else {
+                System.err.println("Warning: Ignoring unknown option " + arg);
+            }
+        }
+
+        SyntheticStatementGenerator generator = new SyntheticStatementGenerator(SyntheticStatementGenerator.DEFAULT_SEED);
+        String[] pool = new String[DESCRIPTION_POOL_SIZE];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = generator.nextDescription();
+        }
+
+        ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient client = HttpClient.newBuilder()
+                                      .version(HttpClient.Version.HTTP_1_1)
+                                      .executor(clientThreads)
+                                      .build();
+        URI target = URI.create(url + (bulk > 0 ? "/classify/bulk" : "/classify"));
+        int perRequest = Math.max(1, bulk);
+
+        System.out.printf("Load testing %s with %d client(s) for %d s after a %d s warm-up, %d description(s) per request...%n",
+                          target, clients, seconds, warmupSeconds, perRequest);
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder requests = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int clientIndex = c;
+            threads.add(Thread.ofVirtual().name("load-client-" + c).start(() -> {
+                int next = clientIndex * 997;
+                StringBuilder body = new StringBuilder(perRequest * 40);
+                while (true) {
+                    body.setLength(0);
+                    for (int i = 0; i < perRequest; i++) {
+                        body.append(pool[next++ & (DESCRIPTION_POOL_SIZE - 1)]).append('\n');
+                    }
+                    HttpRequest request = HttpRequest.newBuilder(target)
+                            .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                            .header("Content-Type", "text/plain; charset=utf-8")
+                            .build();
+
+                    long start = System.nanoTime();
+                    if (start >= measureUntil) {
+                        return;
+                    }
+                    boolean ok;
+                    try {
+                        ok = client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() == 200;
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        ok = false;
+                    }
+                    long end = System.nanoTime();
+                    if (start >= measureFrom && end <= measureUntil) {
+                        requests.increment();
+                        latency.record(end - start);
+                        if (!ok) {
+                            errors.increment();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double measuredSeconds = seconds;
+        long count = requests.sum();
+        System.out.printf("%nRequests            : %,d (%,d failed)%n", count, errors.sum());
+        System.out.printf("Requests/sec        : %,.0f%n", count / measuredSeconds);
+        System.out.printf("Descriptions/sec    : %,.0f%n", count * perRequest / measuredSeconds);
+        System.out.printf("Latency p50         : %.3f ms%n", latency.valueAtPercentile(50) / 1e6);
+        System.out.printf("Latency p90         : %.3f ms%n", latency.valueAtPercentile(90) / 1e6);
+        System.out.printf("Latency p99         : %.3f ms%n", latency.valueAtPercentile(99) / 1e6);
+        System.out.printf("Latency max         : %.3f ms%n", latency.getMax() / 1e6);
+
+        try {
+            HttpResponse<String> stats = client.send(HttpRequest.newBuilder(URI.create(url + "/stats")).build(),
+                                                     HttpResponse.BodyHandlers.ofString());
+            System.out.println("Server stats        : " + stats.body());
+        } catch (Exception e) {
+            System.err.println("Warning: Could not read server stats: " + e.getMessage());
+        }
+        clientThreads.shutdownNow();
+    }
+}
\ No newline at end of file
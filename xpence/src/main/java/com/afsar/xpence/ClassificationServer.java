@@ -0,0 +1,490 @@
+package com.afsar.xpence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClassificationServer keeps one warm categorizer in a long-running process and serves
+ * predictions over HTTP on localhost, so tools that need categories do not each pay
+ * for loading the model.
+ *
+ * Every request is handled on its own virtual thread, which hands its descriptions to
+ * a bounded queue and waits. A fixed set of batcher threads (one per core) take work
+ * off the queue in micro-batches of up to maxBatch descriptions: a batcher takes what
+ * has queued up while it was busy, optionally lingers a little for more, classifies the
+ * whole batch in one go and completes the waiting requests. Under load, concurrent
+ * requests are thereby coalesced without any single request waiting for a full batch,
+ * and the CPU-bound work stays on as many threads as there are cores.
+ *
+ * Endpoints (request bodies are UTF-8 text, responses are JSON):
+ * <pre>
+ *   POST /classify        one description           {"category": "Food"}
+ *   GET  /classify?description=...                  {"category": "Food"}
+ *   POST /classify/bulk   one description per line  {"categories": ["Food", null, ...]}
+ *   GET  /health                                    {"status": "ok", "categories": [...]}
+ *   GET  /stats           request counts, batch sizes and latency percentiles
+ * </pre>
+ * Blank lines in a bulk request get a null category, so results line up with lines.
+ *
+ * Usage: java -jar xpence.jar --serve [--port=N] [--host=ADDR] [--workers=N] [--max-batch=N] [--linger-micros=N] [--cache-size=N]
+ */
+public class ClassificationServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8765;
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final long DEFAULT_LINGER_MICROS = 200;
+
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int QUEUED_BATCHES_PER_WORKER = 16;
+
+    /**
+     * The descriptions of one request, completed once every slice has been classified.
+     */
+    private static final class Request {
+        final String[] descriptions;
+        final int[] categories;
+        final AtomicInteger slicesLeft;
+        final CompletableFuture<int[]> done = new CompletableFuture<>();
+
+        Request(String[] descriptions, int slices) {
+            this.descriptions = descriptions;
+            this.categories = new int[descriptions.length];
+            this.slicesLeft = new AtomicInteger(slices);
+        }
+    }
+
+    /**
+     * A run of at most maxBatch descriptions of one request; the unit of queueing.
+     */
+    private record Slice(Request request, int from, int to) {
+        int size() {
+            return to - from;
+        }
+    }
+
+    private final ExpenseCategorizer categorizer;
+    private final String[] categoryNames;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<Slice> queue;
+    private final List<Thread> batchers = new ArrayList<>();
+    private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder classified = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Creates the server and starts its batcher threads; call start() to accept requests.
+     *
+     * @param categorizer The categorizer to serve
+     * @param address Address to listen on
+     * @param workers Number of batcher threads
+     * @param maxBatch Maximum number of descriptions classified as one batch
+     * @param lingerMicros How long a batcher waits for more work to fill a batch, or 0
+     * @throws IOException If the address cannot be bound
+     */
+    public ClassificationServer(ExpenseCategorizer categorizer, InetSocketAddress address,
+                                int workers, int maxBatch, long lingerMicros) throws IOException {
+        if (workers <= 0 || maxBatch <= 0 || lingerMicros < 0) {
+            throw new IllegalArgumentException("Workers and batch size must be positive, linger not negative");
+        }
+        this.categorizer = categorizer;
+        this.categoryNames = categorizer.getCategoryNames();
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        this.queue = new ArrayBlockingQueue<>(workers * QUEUED_BATCHES_PER_WORKER);
+
+        this.server = HttpServer.create(address, 1024);
+        server.setExecutor(requestExecutor);
+        server.createContext("/classify", exchange -> handle(exchange, this::classifyOne));
+        server.createContext("/classify/bulk", exchange -> handle(exchange, this::classifyBulk));
+        server.createContext("/health", exchange -> handle(exchange, this::health));
+        server.createContext("/stats", exchange -> handle(exchange, this::stats));
+
+        for (int i = 0; i < workers; i++) {
+            Thread batcher = new Thread(this::runBatcher, "xpence-batcher-" + i);
+            batcher.setDaemon(true);
+            batcher.start();
+            batchers.add(batcher);
+        }
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        String host = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int maxBatch = DEFAULT_MAX_BATCH;
+        long lingerMicros = DEFAULT_LINGER_MICROS;
+        int cacheSize = 0;
+        for (String arg : args) {
+            if (arg.equals("--serve")) {
+                continue;
+            } else if (arg.startsWith("--port=")) {
+                port = App.intOption(arg, "--port=", 0);
+            } else if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--workers=")) {
+                workers = App.intOption(arg, "--workers=", 1);
+            } else if (arg.startsWith("--max-batch=")) {
+                maxBatch = App.intOption(arg, "--max-batch=", 1);
+            } else if (arg.startsWith("--linger-micros=")) {
+                lingerMicros = App.longOption(arg, "--linger-micros=", 0);
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheSize = App.intOption(arg, "--cache-size=", 0);
+            } else {
+                System.err.println("Warning: Ignoring unknown option " + arg);
+            }
+        }
+
+        try {
+            System.out.println("Initializing xpence categorizer...");
+            ExpenseCategorizer categorizer = ExpenseCategorizer.load(workers);
+            categorizer.enablePredictionCache(cacheSize);
+
+            // Only local clients by default
+            InetAddress address = host != null ? InetAddress.getByName(host) : InetAddress.getLoopbackAddress();
+            ClassificationServer server = new ClassificationServer(categorizer, new InetSocketAddress(address, port),
+                                                                   workers, maxBatch, lingerMicros);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                System.out.println("Stopped. " + server.summary());
+            }, "xpence-server-shutdown"));
+            server.start();
+            System.out.println("Serving categories on http://" + address.getHostAddress() + ":" + server.getPort() +
+                               " with " + workers + " batcher(s), up to " + maxBatch + " descriptions per batch");
+        } catch (Exception e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens on (useful when created with port 0)
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, lets in-flight exchanges finish for up to a second and
+     * stops the batchers.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        batchers.forEach(Thread::interrupt);
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Classifies descriptions through the micro-batching queue, blocking until done.
+     *
+     * @param descriptions Descriptions to classify
+     * @return Category indices in the same order
+     * @throws Exception If classification fails or the thread is interrupted
+     */
+    public int[] classify(String[] descriptions) throws Exception {
+        int slices = (descriptions.length + maxBatch - 1) / maxBatch;
+        Request request = new Request(descriptions, slices);
+        if (slices == 0) {
+            return request.categories;
+        }
+        for (int from = 0; from < descriptions.length; from += maxBatch) {
+            queue.put(new Slice(request, from, Math.min(descriptions.length, from + maxBatch)));
+        }
+        try {
+            return request.done.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * @return A one-line summary of the requests served so far
+     */
+    public String summary() {
+        long batchCount = batches.sum();
+        return String.format("%d request(s), %d failed, %d description(s) in %d batch(es), mean batch %.1f, p50 %d us, p99 %d us",
+                requests.sum(), failedRequests.sum(), classified.sum(), batchCount,
+                batchCount == 0 ? 0.0 : (double) classified.sum() / batchCount,
+                TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(99)));
+    }
+
+    /**
+     * Batcher loop: takes one slice, then whatever else is queued (waiting up to the
+     * linger time if that is not enough), up to maxBatch descriptions.
+     */
+    private void runBatcher() {
+        List<Slice> batch = new ArrayList<>();
+        // A batch stops growing at maxBatch, and its last slice adds at most maxBatch more
+        String[] descriptions = new String[maxBatch * 2];
+        int[] categories = new int[maxBatch * 2];
+        try {
+            while (true) {
+                Slice first = queue.take();
+                batch.add(first);
+                int size = first.size();
+                long deadline = System.nanoTime() + lingerNanos;
+                while (size < maxBatch) {
+                    Slice next = queue.poll();
+                    if (next == null && lingerNanos > 0) {
+                        long wait = deadline - System.nanoTime();
+                        next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    size += next.size();
+                }
+                classifyBatch(batch, descriptions, categories);
+                batches.increment();
+                classified.add(size);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Server is closing
+        }
+    }
+
+    /**
+     * Classifies the descriptions of all slices with one call, then hands each request
+     * its categories. If that call fails, the slices are classified one by one so only
+     * the requests whose descriptions fail are failed.
+     */
+    private void classifyBatch(List<Slice> batch, String[] descriptions, int[] categories) {
+        if (batch.size() == 1) {
+            classifySlices(batch); // Nothing to gather
+            return;
+        }
+        int size = 0;
+        for (Slice slice : batch) {
+            System.arraycopy(slice.request().descriptions, slice.from(), descriptions, size, slice.size());
+            size += slice.size();
+        }
+        try {
+            categorizer.predictCategoryIndices(descriptions, 0, size, categories);
+        } catch (Exception e) {
+            classifySlices(batch);
+            return;
+        } finally {
+            Arrays.fill(descriptions, 0, size, null);
+        }
+
+        int offset = 0;
+        for (Slice slice : batch) {
+            Request request = slice.request();
+            System.arraycopy(categories, offset, request.categories, slice.from(), slice.size());
+            offset += slice.size();
+            if (request.slicesLeft.decrementAndGet() == 0) {
+                request.done.complete(request.categories);
+            }
+        }
+    }
+
+    private void classifySlices(List<Slice> batch) {
+        for (Slice slice : batch) {
+            Request request = slice.request();
+            try {
+                categorizer.predictCategoryIndices(request.descriptions, slice.from(), slice.to(), request.categories);
+            } catch (Exception e) {
+                request.done.completeExceptionally(e);
+                continue;
+            }
+            if (request.slicesLeft.decrementAndGet() == 0) {
+                request.done.complete(request.categories);
+            }
+        }
+    }
+
+    /**
+     * An endpoint: returns the JSON response body, or throws HttpError.
+     */
+    private interface Endpoint {
+        String respond(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * A client error, reported with its HTTP status.
+     */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        int status = 200;
+        String body;
+        try {
+            body = endpoint.respond(exchange);
+        } catch (HttpError e) {
+            status = e.status;
+            body = "{\"error\": " + BatchRunner.jsonString(e.getMessage()) + "}";
+        } catch (Exception e) {
+            status = 500;
+            body = "{\"error\": " + BatchRunner.jsonString(String.valueOf(e.getMessage())) + "}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        exchange.close();
+
+        requests.increment();
+        if (status != 200) {
+            failedRequests.increment();
+        }
+        latency.record(System.nanoTime() - start);
+    }
+
+    private String classifyOne(HttpExchange exchange) throws Exception {
+        checkPath(exchange, "/classify");
+        String description;
+        if (exchange.getRequestMethod().equals("GET")) {
+            description = queryParameter(exchange, "description");
+        } else {
+            checkMethod(exchange, "POST");
+            description = readBody(exchange).trim();
+        }
+        if (description == null || description.isEmpty()) {
+            throw new HttpError(400, "Empty description");
+        }
+        int category = classify(new String[] {description})[0];
+        return "{\"category\": " + BatchRunner.jsonString(categoryNames[category]) + "}";
+    }
+
+    private String classifyBulk(HttpExchange exchange) throws Exception {
+        checkPath(exchange, "/classify/bulk");
+        checkMethod(exchange, "POST");
+        String body = readBody(exchange);
+        if (body.endsWith("\n")) {
+            body = body.substring(0, body.length() - 1); // No empty line after the last one
+        }
+
+        // Classify the non-blank lines, remembering where each one goes
+        String[] lines = body.isEmpty() ? new String[0] : body.split("\n", -1);
+        String[] descriptions = new String[lines.length];
+        int[] lineOf = new int[lines.length];
+        int count = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String description = lines[i].trim();
+            if (!description.isEmpty()) {
+                descriptions[count] = description;
+                lineOf[count++] = i;
+            }
+        }
+        String[] trimmed = new String[count];
+        System.arraycopy(descriptions, 0, trimmed, 0, count);
+        int[] categories = classify(trimmed);
+
+        String[] byLine = new String[lines.length];
+        for (int i = 0; i < count; i++) {
+            byLine[lineOf[i]] = categoryNames[categories[i]];
+        }
+        StringBuilder json = new StringBuilder(32 + lines.length * 16);
+        json.append("{\"categories\": [");
+        for (int i = 0; i < byLine.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(byLine[i] == null ? "null" : BatchRunner.jsonString(byLine[i]));
+        }
+        return json.append("]}").toString();
+    }
+
+    private String health(HttpExchange exchange) throws Exception {
+        checkPath(exchange, "/health");
+        StringBuilder json = new StringBuilder("{\"status\": \"ok\", \"categories\": [");
+        for (int i = 0; i < categoryNames.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(BatchRunner.jsonString(categoryNames[i]));
+        }
+        return json.append("]}").toString();
+    }
+
+    private String stats(HttpExchange exchange) throws Exception {
+        checkPath(exchange, "/stats");
+        long batchCount = batches.sum();
+        return "{\"requests\": " + requests.sum() +
+               ", \"failedRequests\": " + failedRequests.sum() +
+               ", \"descriptions\": " + classified.sum() +
+               ", \"batches\": " + batchCount +
+               ", \"meanBatchSize\": " + String.format("%.2f", batchCount == 0 ? 0.0 : (double) classified.sum() / batchCount) +
+               ", \"queuedSlices\": " + queue.size() +
+               ", \"p50Micros\": " + TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(50)) +
+               ", \"p99Micros\": " + TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(99)) + "}";
+    }
+
+    private static void checkPath(HttpExchange exchange, String path) throws HttpError {
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+            throw new HttpError(404, "Not found: " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private static void checkMethod(HttpExchange exchange, String method) throws HttpError {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new HttpError(405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException, HttpError {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8).trim();
+            }
+        }
+        return null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.afsar.xpence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * CompiledModel is an immutable, Weka-free classifier stored in a ModelBundle and used
+ * by ExpenseCategorizer. Implementations must be safe to call from many threads.
+ */
+public interface CompiledModel {
+
+    /**
+     * Predicts the class index of a description.
+     *
+     * @param description The transaction description
+     * @return Index into getClassNames()
+     */
+    int predictIndex(CharSequence description);
+
+    /**
+     * @return Class names in class index order
+     */
+    String[] getClassNames();
+
+    /**
+     * Writes the model body, read back by the implementation's static read().
+     *
+     * @param out Destination
+     * @throws IOException If writing fails
+     */
+    void write(DataOutput out) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,652 @@
+package com.afsar.xpence;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * CsvReader is a single-pass, state-machine CSV tokenizer for large bank statements.
+ * It reads UTF-8 bytes through a reusable buffer, handles RFC 4180 quoting (including
+ * escaped quotes and line breaks inside quoted fields) and exposes each record as a set
+ * of field offsets, so fields are only turned into Strings when the caller asks for them.
+ *
+ * Tokenizing works on raw bytes: the delimiters (comma, quote, CR, LF) are all ASCII and
+ * never appear inside a multi-byte UTF-8 sequence, so no charset decoding is needed until
+ * a field is actually read as text.
+ */
+public class CsvReader implements Closeable {
+
+    /**
+     * Returned by parseEpochDay() for a field that is not a recognizable date.
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final String MONTHS = "JANFEBMARAPRMAYJUNJULAUGSEPOCTNOVDEC";
+
+    // UTF-8 encoding of the rupee sign (U+20B9)
+    private static final byte RUPEE_0 = (byte) 0xE2;
+    private static final byte RUPEE_1 = (byte) 0x82;
+    private static final byte RUPEE_2 = (byte) 0xB9;
+
+    // Exact powers of ten for the fast double path (10^22 is the largest exact one)
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final InputStream in;
+
+    // Input buffer
+    private final byte[] buffer;
+    private int bufferPos;
+    private int bufferLimit;
+    private long bufferStartOffset;
+    private boolean endOfInput;
+
+    // Current record: unescaped field bytes plus start/end offsets for each field
+    private byte[] record = new byte[256];
+    private int recordLength;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private long recordStartOffset;
+    private long recordEndOffset;
+    private boolean recordTerminated;
+    private long strayQuotes;
+
+    /**
+     * Creates a reader with the default buffer size.
+     *
+     * @param in The UTF-8 encoded CSV input
+     */
+    public CsvReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a reader with the given buffer size.
+     *
+     * @param in The UTF-8 encoded CSV input
+     * @param bufferSize Size of the reusable read buffer in bytes
+     */
+    public CsvReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Creates a reader over a region of bytes, such as a slice of a memory-mapped file.
+     *
+     * @param source The UTF-8 encoded CSV bytes, read from position to limit
+     */
+    public CsvReader(ByteBuffer source) {
+        this(new ByteBufferInputStream(source), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if a record was read, false at end of input
+     * @throws IOException If the underlying stream fails
+     */
+    public boolean nextRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+        recordStartOffset = bufferStartOffset + bufferPos;
+
+        if (!ensureInput()) {
+            recordEndOffset = recordStartOffset;
+            return false;
+        }
+
+        boolean inQuotes = false;
+        int fieldStart = 0;
+
+        while (true) {
+            if (bufferPos == bufferLimit && !ensureInput()) {
+                // End of input terminates the final record
+                endField(fieldStart);
+                recordTerminated = false;
+                break;
+            }
+
+            byte b = buffer[bufferPos++];
+
+            if (inQuotes) {
+                if (b == '"') {
+                    // Either an escaped quote ("") or the closing quote
+                    if (bufferPos == bufferLimit && !ensureInput()) {
+                        inQuotes = false;
+                    } else if (buffer[bufferPos] == '"') {
+                        bufferPos++;
+                        append(b);
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    append(b);
+                }
+            } else if (b == ',') {
+                endField(fieldStart);
+                fieldStart = recordLength;
+            } else if (b == '\n') {
+                endField(fieldStart);
+                recordTerminated = true;
+                break;
+            } else if (b == '\r') {
+                // Treat CRLF as a single line break
+                boolean more = bufferPos < bufferLimit || ensureInput();
+                if (more && buffer[bufferPos] == '\n') {
+                    bufferPos++;
+                }
+                endField(fieldStart);
+                // A CR at end of input may still be followed by its LF
+                recordTerminated = more;
+                break;
+            } else if (b == '"' && recordLength == fieldStart) {
+                inQuotes = true;
+            } else {
+                if (b == '"') {
+                    strayQuotes++;
+                }
+                append(b);
+            }
+        }
+
+        recordEndOffset = bufferStartOffset + bufferPos;
+        return true;
+    }
+
+    /**
+     * @return Number of fields in the current record
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Counts quote characters that appeared in the middle of an unquoted field.
+     * Such quotes are kept as literal text, but they mean the input is not strictly
+     * RFC 4180, so quote parity can no longer be used to find record boundaries.
+     *
+     * @return Number of stray quotes seen so far
+     */
+    public long strayQuotes() {
+        return strayQuotes;
+    }
+
+    /**
+     * @return Byte offset of the first byte of the current record
+     */
+    public long recordStartOffset() {
+        return recordStartOffset;
+    }
+
+    /**
+     * @return Byte offset just past the current record, including its line break
+     */
+    public long recordEndOffset() {
+        return recordEndOffset;
+    }
+
+    /**
+     * @return true if the current record ended with a complete line break, false if it
+     *         ran into the end of input (e.g. the last line of a file still being written)
+     */
+    public boolean recordTerminated() {
+        return recordTerminated;
+    }
+
+    /**
+     * Returns a field decoded as UTF-8, exactly as it appeared (minus CSV quoting).
+     *
+     * @param index Zero-based field index
+     * @return The field value
+     */
+    public String field(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        return new String(record, start, fieldEnds[index] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a field decoded as UTF-8 with leading and trailing whitespace removed,
+     * using the same definition of whitespace as String.trim().
+     *
+     * @param index Zero-based field index
+     * @return The trimmed field value
+     */
+    public String trimmedField(int index) {
+        checkIndex(index);
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        return new String(record, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index Zero-based field index
+     * @return true if the field is empty or contains only whitespace
+     */
+    public boolean isBlank(int index) {
+        checkIndex(index);
+        return trimStart(index) == fieldEnds[index];
+    }
+
+    /**
+     * @return true if the current record is an empty or whitespace-only line
+     */
+    public boolean isBlankRecord() {
+        return fieldCount == 1 && isBlank(0);
+    }
+
+    /**
+     * @return All fields of the current record as Strings (used for header rows)
+     */
+    public String[] fields() {
+        String[] values = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = field(i);
+        }
+        return values;
+    }
+
+    /**
+     * Parses a field as a monetary amount. Currency symbols (₹, $), thousands separators
+     * and whitespace are ignored. Plain decimal amounts are converted without building
+     * any intermediate String; anything else falls back to Double.parseDouble, so the
+     * result is always identical to parsing the cleaned text with Double.parseDouble.
+     *
+     * @param index Zero-based field index
+     * @return The parsed amount
+     * @throws NumberFormatException If the field is not a valid number
+     */
+    public double parseAmount(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+
+        int i = start;
+        boolean negative = false;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean seenSign = false;
+        boolean fast = true;
+
+        while (i < end) {
+            byte b = record[i];
+            int skip = ignorableLength(i, end);
+            if (skip > 0) {
+                i += skip;
+                continue;
+            }
+            if (b >= '0' && b <= '9') {
+                if (mantissa > (MAX_EXACT_MANTISSA - 9) / 10) {
+                    fast = false;
+                    break;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((b == '-' || b == '+') && !seenSign && digits == 0 && !seenPoint) {
+                seenSign = true;
+                negative = b == '-';
+            } else {
+                fast = false;
+                break;
+            }
+            i++;
+        }
+
+        if (fast && digits > 0 && fractionDigits < POWERS_OF_TEN.length) {
+            // Both operands are exact, so a single division is correctly rounded
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(cleanedAmount(start, end));
+    }
+
+    /**
+     * Parses a field as a fixed-point amount in paise (hundredths of the currency unit).
+     * Amounts with more than two decimal places are rounded half-even.
+     *
+     * @param index Zero-based field index
+     * @return The amount in paise
+     * @throws NumberFormatException If the field is not a valid number or overflows a long
+     */
+    public long parseAmountPaise(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+
+        int i = start;
+        boolean negative = false;
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean seenSign = false;
+        boolean fast = true;
+
+        while (i < end) {
+            byte b = record[i];
+            int skip = ignorableLength(i, end);
+            if (skip > 0) {
+                i += skip;
+                continue;
+            }
+            if (b >= '0' && b <= '9') {
+                if (value >= Long.MAX_VALUE / 1000 || (seenPoint && fractionDigits == 2)) {
+                    fast = false;
+                    break;
+                }
+                value = value * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((b == '-' || b == '+') && !seenSign && digits == 0 && !seenPoint) {
+                seenSign = true;
+                negative = b == '-';
+            } else {
+                fast = false;
+                break;
+            }
+            i++;
+        }
+
+        if (fast && digits > 0) {
+            for (int f = fractionDigits; f < 2; f++) {
+                value *= 10;
+            }
+            return negative ? -value : value;
+        }
+
+        try {
+            return new BigDecimal(cleanedAmount(start, end))
+                .setScale(2, RoundingMode.HALF_EVEN)
+                .unscaledValue()
+                .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + field(index));
+        }
+    }
+
+    /**
+     * Parses a field as a calendar date in one of the layouts bank statements use:
+     * day first (30-Jul-2025, 30 July 2025, 30/07/2025, 30.07.25) or ISO year first
+     * (2025-07-30). Two-digit years are taken as 20xx, and anything after the date
+     * (such as a time of day) is ignored.
+     *
+     * @param index Zero-based field index
+     * @return Days since 1970-01-01, or NO_DATE if the field is not a valid date
+     */
+    public int parseEpochDay(int index) {
+        checkIndex(index);
+        int end = trimEnd(index, trimStart(index));
+        int i = trimStart(index);
+
+        // First part: day, or a four-digit year
+        int first = 0;
+        int firstDigits = 0;
+        while (i < end && record[i] >= '0' && record[i] <= '9' && firstDigits < 4) {
+            first = first * 10 + (record[i++] - '0');
+            firstDigits++;
+        }
+        if (firstDigits == 0 || i == end || !isDateSeparator(record[i])) {
+            return NO_DATE;
+        }
+        byte separator = record[i++];
+
+        // Second part: month number or name
+        int month = 0;
+        if (i < end && isLetter(record[i])) {
+            int nameStart = i;
+            while (i < end && isLetter(record[i])) {
+                i++;
+            }
+            if (i - nameStart < 3) {
+                return NO_DATE;
+            }
+            month = monthOf(nameStart);
+        } else {
+            int monthDigits = 0;
+            while (i < end && record[i] >= '0' && record[i] <= '9' && monthDigits < 2) {
+                month = month * 10 + (record[i++] - '0');
+                monthDigits++;
+            }
+        }
+        if (month == 0 || i == end || record[i] != separator) {
+            return NO_DATE;
+        }
+        i++;
+
+        // Third part: year, or the day after a four-digit year
+        int last = 0;
+        int lastDigits = 0;
+        while (i < end && record[i] >= '0' && record[i] <= '9' && lastDigits < 4) {
+            last = last * 10 + (record[i++] - '0');
+            lastDigits++;
+        }
+        if (lastDigits == 0 || (i < end && record[i] >= '0' && record[i] <= '9')) {
+            return NO_DATE;
+        }
+
+        int year;
+        int day;
+        if (firstDigits == 4) {
+            year = first;
+            day = last;
+        } else if (firstDigits <= 2 && (lastDigits == 4 || lastDigits == 2)) {
+            day = first;
+            year = lastDigits == 2 ? 2000 + last : last;
+        } else {
+            return NO_DATE;
+        }
+        try {
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return NO_DATE;
+        }
+    }
+
+    /**
+     * Splits a single CSV line into fields using the same rules as nextRecord().
+     *
+     * @param line The CSV line to parse
+     * @return Array of field values
+     */
+    public static String[] parseLine(String line) {
+        try (CsvReader reader = new CsvReader(
+                new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)), 256)) {
+            return reader.nextRecord() ? reader.fields() : new String[] { "" };
+        } catch (IOException e) {
+            // Cannot happen for an in-memory stream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Starts a new, empty record. Together with addField() this lets a subclass such as
+     * XlsxReader fill records from something other than CSV text, while the field
+     * accessors and the amount and date parsers work exactly as they do for CSV.
+     */
+    protected void clearRecord() {
+        recordLength = 0;
+        fieldCount = 0;
+        recordTerminated = true;
+    }
+
+    /**
+     * Appends a field to the current record.
+     *
+     * @param value The field value, or null for an empty field
+     */
+    protected void addField(String value) {
+        int start = recordLength;
+        if (value != null && !value.isEmpty()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (recordLength + bytes.length > record.length) {
+                record = Arrays.copyOf(record, Math.max(record.length * 2, recordLength + bytes.length));
+            }
+            System.arraycopy(bytes, 0, record, recordLength, bytes.length);
+            recordLength += bytes.length;
+        }
+        endField(start);
+    }
+
+    /**
+     * Makes sure there is unread data in the buffer, refilling it if necessary.
+     *
+     * @return false if the end of input has been reached
+     */
+    private boolean ensureInput() throws IOException {
+        if (bufferPos < bufferLimit) {
+            return true;
+        }
+        if (endOfInput) {
+            return false;
+        }
+        bufferStartOffset += bufferLimit;
+        bufferPos = 0;
+        bufferLimit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            endOfInput = true;
+            return false;
+        }
+        bufferLimit = read;
+        return true;
+    }
+
+    private void append(byte b) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length * 2);
+        }
+        record[recordLength++] = b;
+    }
+
+    private void endField(int fieldStart) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = recordLength;
+        fieldCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount);
+        }
+    }
+
+    private int trimStart(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        while (start < end && (record[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int index, int start) {
+        int end = fieldEnds[index];
+        while (end > start && (record[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns how many bytes at position i belong to characters that amount parsing
+     * ignores: the rupee sign, dollar sign, thousands separators and whitespace
+     * (the same set as the regex [₹$,\s]).
+     */
+    private int ignorableLength(int i, int end) {
+        byte b = record[i];
+        switch (b) {
+            case '$':
+            case ',':
+            case ' ':
+            case '\t':
+            case '\n':
+            case 0x0B:
+            case '\f':
+            case '\r':
+                return 1;
+            case RUPEE_0:
+                if (i + 2 < end && record[i + 1] == RUPEE_1 && record[i + 2] == RUPEE_2) {
+                    return 3;
+                }
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isDateSeparator(byte b) {
+        return b == '-' || b == '/' || b == '.' || b == ' ';
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    /**
+     * @return The month (1-12) named by the three letters at position i, or 0
+     */
+    private int monthOf(int i) {
+        for (int m = 0; m < 12; m++) {
+            if (MONTHS.charAt(m * 3) == (record[i] & 0xDF)
+                    && MONTHS.charAt(m * 3 + 1) == (record[i + 1] & 0xDF)
+                    && MONTHS.charAt(m * 3 + 2) == (record[i + 2] & 0xDF)) {
+                return m + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Builds the amount text with ignorable characters removed, for the slow paths.
+     */
+    private String cleanedAmount(int start, int end) {
+        byte[] cleaned = new byte[end - start];
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            int skip = ignorableLength(i, end);
+            if (skip > 0) {
+                i += skip;
+            } else {
+                cleaned[length++] = record[i++];
+            }
+        }
+        return new String(cleaned, 0, length, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
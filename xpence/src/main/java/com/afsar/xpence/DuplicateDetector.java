@@ -0,0 +1,510 @@
+package com.afsar.xpence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * DuplicateDetector recognizes transactions that an earlier statement already counted,
+ * so overlapping exports of the same account can be processed one after another
+ * without their common rows being added to the totals twice.
+ *
+ * Each row is reduced to a 64-bit fingerprint of its normalized description (case and
+ * runs of whitespace ignored), amount and date. Two structures with sizes fixed when
+ * the detector is created remember the fingerprints:
+ * <ul>
+ *   <li>a blocked Bloom filter (about 10 bits per expected row, all probes of a lookup
+ *       in one 64-byte block) answers "never seen" for most new rows with a single
+ *       cache miss;</li>
+ *   <li>a table of 4-slot buckets, each fingerprint having two candidate buckets,
+ *       confirms a suspected duplicate. A slot holds a 24-bit fingerprint tag plus the
+ *       tag of the statement that last matched it, in one int. The fingerprint tag
+ *       comes from its own hash, independent of the bits that pick the buckets.</li>
+ * </ul>
+ * A row is only skipped when the table confirms it, so a Bloom filter false positive
+ * drops a transaction only if its tag also matches one of the eight slots it is
+ * compared with, about once in two million false positives. That rate holds while
+ * the detector is within the size it was created for. Once more rows have been added
+ * than that, isFull() turns true and the detector stops reporting duplicates rather
+ * than confirm more and more unrelated rows; a larger one has to be started. A table
+ * capped at its maximum size evicts old fingerprints before then, and duplicates of
+ * those are simply counted again.
+ *
+ * Identical rows within one statement are genuine repeat transactions (two coffees of
+ * the same price on the same day), so rows are matched as a multiset: the n-th copy of
+ * a row in a statement is only a duplicate if some earlier statement also had at least
+ * n copies. Rows without a valid date are never treated as duplicates.
+ *
+ * The detector is saved to a file between runs, together with the identity (size and
+ * content hash) of every statement added to it. A statement whose identity is already
+ * recorded must not be checked again: all of its rows would match themselves. Callers
+ * test hasStatement() first and process such a statement without the detector. It is
+ * not thread-safe; rows must be checked in file order from a single thread.
+ */
+public class DuplicateDetector {
+
+    public static final long DEFAULT_EXPECTED_ROWS = 1 << 20;
+
+    private static final int MAGIC = 0x58504444; // "XPDD"
+    private static final int VERSION = 3;
+
+    private static final int BLOOM_BITS_PER_ROW = 10;
+    private static final int BLOOM_PROBES = 7;
+    private static final int BLOCK_LONGS = 8;     // 512-bit blocks, one cache line
+    private static final int BUCKET_SLOTS = 4;
+    private static final long MAX_TABLE_SLOTS = 1L << 26; // 256 MB of table at most
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final long TABLE_SALT = 0x2545F4914F6CDD1DL;
+    private static final long TAG_SALT = 0x6A09E667F3BCC909L;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4 + 8 + 8 + 8 + 4;
+    private static final int STATEMENT_BYTES = 8 + 8;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Identifies a statement file by its size and a CRC-32C of its bytes, so a renamed
+     * or copied file is still recognized and an extended export is not.
+     */
+    public record StatementId(long size, long contentHash) {
+    }
+
+    private final long expectedRows;
+    private final long[] bloom;
+    private final int blocks;
+    private final int[] table;
+    private final int bucketMask;
+
+    private int statementTag = 1;    // 1..255; 0 marks an empty slot
+    private long entries;            // fingerprints added to the table
+    private long evicted;            // fingerprints pushed out of a full bucket
+    private long duplicates;         // duplicates found over the detector's lifetime
+    private final Set<StatementId> statements = new LinkedHashSet<>();
+
+    /**
+     * Creates an empty detector.
+     *
+     * @param expectedRows Number of distinct rows the detector should hold exactly; sets
+     *                     the memory used, about 10 bytes per row (tables are capped at
+     *                     256 MB, beyond which old fingerprints are evicted)
+     */
+    public DuplicateDetector(long expectedRows) {
+        if (expectedRows <= 0) {
+            throw new IllegalArgumentException("Expected rows must be positive: " + expectedRows);
+        }
+        this.expectedRows = expectedRows;
+        long bloomLongs = Math.max(BLOCK_LONGS, expectedRows * BLOOM_BITS_PER_ROW / 64);
+        this.blocks = (int) Math.min(Integer.MAX_VALUE / BLOCK_LONGS, (bloomLongs + BLOCK_LONGS - 1) / BLOCK_LONGS);
+        this.bloom = new long[blocks * BLOCK_LONGS];
+        // Up to two thirds full, where two-choice buckets rarely overflow
+        long slots = Math.min(MAX_TABLE_SLOTS, Long.highestOneBit(Math.max(BUCKET_SLOTS, expectedRows * 3 / 2 - 1)) << 1);
+        this.table = new int[(int) slots];
+        this.bucketMask = (int) (slots / BUCKET_SLOTS) - 1;
+    }
+
+    private DuplicateDetector(long expectedRows, int blocks, int tableSlots) {
+        this.expectedRows = expectedRows;
+        this.blocks = blocks;
+        this.bloom = new long[blocks * BLOCK_LONGS];
+        this.table = new int[tableSlots];
+        this.bucketMask = tableSlots / BUCKET_SLOTS - 1;
+    }
+
+    /**
+     * Loads a detector saved by save(), or creates an empty one if the file does not exist.
+     *
+     * @param file The detector file
+     * @param expectedRows Size of a newly created detector
+     * @return The detector
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static DuplicateDetector loadOrCreate(Path file, long expectedRows) throws IOException {
+        return Files.exists(file) ? load(file) : new DuplicateDetector(expectedRows);
+    }
+
+    /**
+     * Loads a detector saved by save().
+     *
+     * @param file The detector file
+     * @return The detector
+     * @throws IOException If the file cannot be read or is not a detector file
+     */
+    public static DuplicateDetector load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a duplicate index: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a duplicate index: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported duplicate index version " + version + ": " + file);
+            }
+            long expectedRows = header.getLong();
+            int blocks = header.getInt();
+            int tableSlots = header.getInt();
+            int statementTag = header.getInt();
+            long entries = header.getLong();
+            long evicted = header.getLong();
+            long duplicates = header.getLong();
+            int statementCount = header.getInt();
+            if (blocks <= 0 || blocks > Integer.MAX_VALUE / BLOCK_LONGS || tableSlots < BUCKET_SLOTS ||
+                Integer.bitCount(tableSlots) != 1 || statementCount < 0 ||
+                channel.size() != HEADER_BYTES + (long) blocks * BLOCK_LONGS * 8 + (long) tableSlots * 4
+                                  + (long) statementCount * STATEMENT_BYTES) {
+                throw new IOException("Duplicate index is truncated or corrupt: " + file);
+            }
+
+            DuplicateDetector detector = new DuplicateDetector(expectedRows, blocks, tableSlots);
+            detector.statementTag = statementTag;
+            detector.entries = entries;
+            detector.evicted = evicted;
+            detector.duplicates = duplicates;
+
+            ByteBuffer data = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < detector.bloom.length; ) {
+                data.clear().limit(Math.min(data.capacity(), (detector.bloom.length - i) * 8));
+                readFully(channel, data);
+                data.flip();
+                int count = data.remaining() / 8;
+                data.asLongBuffer().get(detector.bloom, i, count);
+                i += count;
+            }
+            for (int i = 0; i < detector.table.length; ) {
+                data.clear().limit(Math.min(data.capacity(), (detector.table.length - i) * 4));
+                readFully(channel, data);
+                data.flip();
+                int count = data.remaining() / 4;
+                data.asIntBuffer().get(detector.table, i, count);
+                i += count;
+            }
+            ByteBuffer statements = ByteBuffer.allocate(statementCount * STATEMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, statements);
+            statements.flip();
+            for (int i = 0; i < statementCount; i++) {
+                detector.statements.add(new StatementId(statements.getLong(), statements.getLong()));
+            }
+            return detector;
+        }
+    }
+
+    /**
+     * Saves the detector, replacing the file atomically so an interrupted save never
+     * leaves a damaged index behind.
+     *
+     * @param file The detector file
+     * @throws IOException If writing fails
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(expectedRows).putInt(blocks).putInt(table.length)
+                  .putInt(statementTag).putLong(entries).putLong(evicted).putLong(duplicates)
+                  .putInt(statements.size());
+            writeFully(channel, header.flip());
+
+            ByteBuffer data = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < bloom.length; ) {
+                int count = Math.min(data.capacity() / 8, bloom.length - i);
+                data.clear();
+                data.asLongBuffer().put(bloom, i, count);
+                data.limit(count * 8);
+                writeFully(channel, data);
+                i += count;
+            }
+            for (int i = 0; i < table.length; ) {
+                int count = Math.min(data.capacity() / 4, table.length - i);
+                data.clear();
+                data.asIntBuffer().put(table, i, count);
+                data.limit(count * 4);
+                writeFully(channel, data);
+                i += count;
+            }
+            ByteBuffer ids = ByteBuffer.allocate(statements.size() * STATEMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (StatementId id : statements) {
+                ids.putLong(id.size()).putLong(id.contentHash());
+            }
+            writeFully(channel, ids.flip());
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Computes the identity of a statement file.
+     *
+     * @param file The statement file
+     * @return Its size and content hash
+     * @throws IOException If the file cannot be read
+     */
+    public static StatementId identify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer.clear()) >= 0) {
+                crc.update(buffer.flip());
+            }
+            return new StatementId(channel.size(), crc.getValue());
+        }
+    }
+
+    /**
+     * @param id A statement identity from identify()
+     * @return true if the statement's rows are already in the detector
+     */
+    public boolean hasStatement(StatementId id) {
+        return statements.contains(id);
+    }
+
+    /**
+     * Records that a statement's rows are being added, so later runs can recognize it.
+     *
+     * @param id A statement identity from identify()
+     */
+    public void addStatement(StatementId id) {
+        statements.add(id);
+    }
+
+    /**
+     * @return Number of statements recorded in the detector
+     */
+    public int getStatementCount() {
+        return statements.size();
+    }
+
+    /**
+     * Starts a new statement: rows checked from now on are matched against everything
+     * seen before, but not against each other.
+     */
+    public void beginStatement() {
+        statementTag = statementTag == 255 ? 1 : statementTag + 1;
+    }
+
+    /**
+     * Checks a row and remembers it.
+     *
+     * @param description Transaction description
+     * @param paise Amount in paise
+     * @param epochDay Transaction date, or CsvReader.NO_DATE
+     * @return true if an earlier statement already counted this row; always false
+     *         once the detector is full
+     */
+    public boolean isDuplicate(String description, long paise, int epochDay) {
+        if (epochDay == CsvReader.NO_DATE || isFull()) {
+            return false;
+        }
+        long fingerprint = fingerprint(description, paise, epochDay);
+        for (long occurrence = 0; ; occurrence++) {
+            // The n-th copy of a row within a statement has its own fingerprint
+            long key = occurrence == 0 ? fingerprint : mix(fingerprint + occurrence * GOLDEN);
+            if (!bloomAdd(key)) {
+                insert(key);
+                return false;
+            }
+            long hashes = mix(key ^ TABLE_SALT);
+            int tag = fingerprintTag(key);
+            int first = ((int) hashes & bucketMask) * BUCKET_SLOTS;
+            int second = ((int) (hashes >>> 32) & bucketMask) * BUCKET_SLOTS;
+            int slot = find(first, tag);
+            if (slot < 0) {
+                slot = find(second, tag);
+            }
+            if (slot < 0) {
+                insert(key); // A Bloom filter false positive, or evicted since
+                return false;
+            }
+            if ((table[slot] & 0xFF) != statementTag) {
+                table[slot] = (tag << 8) | statementTag; // Claimed by this statement
+                duplicates++;
+                return true;
+            }
+            // This copy was already matched by an earlier row of this statement
+        }
+    }
+
+    /**
+     * @return Duplicates found over the detector's lifetime, across all runs
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return Number of fingerprints held
+     */
+    public long getEntries() {
+        return entries - evicted;
+    }
+
+    /**
+     * @return Number of fingerprints evicted because the detector was full
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return true once more rows have been added than the detector was sized for, after
+     *         which it no longer reports duplicates
+     */
+    public boolean isFull() {
+        return entries > expectedRows;
+    }
+
+    /**
+     * @return Number of distinct rows the detector was sized for
+     */
+    public long getExpectedRows() {
+        return expectedRows;
+    }
+
+    /**
+     * @return Memory used by the Bloom filter and the table, in bytes
+     */
+    public long getMemoryBytes() {
+        return (long) bloom.length * 8 + (long) table.length * 4;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d statements, %,d fingerprints (sized for %,d), %,d evicted, %.1f MB",
+                             statements.size(), getEntries(), expectedRows, evicted, getMemoryBytes() / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Adds a key to the Bloom filter.
+     *
+     * @return true if every bit was already set, i.e. the key may have been seen
+     */
+    private boolean bloomAdd(long key) {
+        int base = (int) (((key >>> 32) * blocks) >>> 32) * BLOCK_LONGS;
+        int h1 = (int) key & 0xFFFF;
+        int h2 = ((int) key >>> 16) | 1;
+        boolean present = true;
+        for (int i = 0; i < BLOOM_PROBES; i++) {
+            int bit = (h1 + i * h2) & 511;
+            long mask = 1L << bit;
+            int word = base + (bit >>> 6);
+            if ((bloom[word] & mask) == 0) {
+                present = false;
+                bloom[word] |= mask;
+            }
+        }
+        return present;
+    }
+
+    private int find(int bucket, int tag) {
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (table[slot] >>> 8 == tag) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Puts a key in the first free slot of its first bucket, or of its second bucket if
+     * the first is full, evicting a pseudo-randomly chosen slot of the first bucket if
+     * both are full.
+     */
+    private void insert(long key) {
+        long hashes = mix(key ^ TABLE_SALT);
+        int tag = fingerprintTag(key);
+        int entry = (tag << 8) | statementTag;
+        int first = ((int) hashes & bucketMask) * BUCKET_SLOTS;
+        int second = ((int) (hashes >>> 32) & bucketMask) * BUCKET_SLOTS;
+        entries++;
+        for (int slot = first; slot < first + BUCKET_SLOTS; slot++) {
+            if (table[slot] == 0) {
+                table[slot] = entry;
+                return;
+            }
+        }
+        for (int slot = second; slot < second + BUCKET_SLOTS; slot++) {
+            if (table[slot] == 0) {
+                table[slot] = entry;
+                return;
+            }
+        }
+        table[first + (int) (key >>> 62)] = entry;
+        evicted++;
+    }
+
+    /**
+     * @return A non-zero 24-bit tag from a hash of its own, so keys sharing a bucket
+     *         still differ in every tag bit
+     */
+    private static int fingerprintTag(long key) {
+        int tag = (int) (mix(key ^ TAG_SALT) & 0xFFFFFF);
+        return tag == 0 ? 1 : tag;
+    }
+
+    /**
+     * Hashes the description with case and whitespace runs normalized, then mixes in
+     * the amount and the date.
+     */
+    static long fingerprint(String description, long paise, int epochDay) {
+        long h = 0xcbf29ce484222325L; // FNV-1a 64
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                h = (h ^ ' ') * 0x100000001b3L;
+                pendingSpace = false;
+            }
+            h = (h ^ Character.toUpperCase(c)) * 0x100000001b3L;
+            started = true;
+        }
+        h = mix(h ^ paise);
+        return mix(h + epochDay * GOLDEN);
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe63e5330L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of duplicate index");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
\ No newline at end of file
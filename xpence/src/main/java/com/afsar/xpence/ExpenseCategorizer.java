@@ -1,6 +1,8 @@
 package com.afsar.xpence;
 
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.DenseInstance;
@@ -11,17 +13,122 @@ import weka.filters.unsupervised.attribute.NominalToString;
 import weka.filters.unsupervised.attribute.StringToWordVector;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
 
+/**
+ * ExpenseCategorizer predicts the spending category of a transaction description.
+ *
+ * It is safe to use from many threads at once. Weka's StringToWordVector is stateful
+ * (input() then output()) and string attributes collect every value they are given,
+ * so each concurrent caller borrows its own Pipeline: a private copy of the filter,
+ * the classifier and the header. At most maxConcurrency pipelines are ever created;
+ * further callers wait for one to be returned, which keeps memory bounded even when
+ * thousands of virtual threads classify at the same time.
+ *
+ * When ModelTrainer's binary model bundle is available, load() uses it instead: the
+ * header comes from the bundle's schema and predictions run on its compiled model (a
+ * NativeCategorizer or a HashedCategorizer), so startup needs neither Java
+ * deserialization nor parsing training-data.csv.
+ */
 public class ExpenseCategorizer {
 
+    // Smallest number of descriptions handed to one task by predictCategories()
+    private static final int MIN_BATCH_SLICE = 64;
+
+    // Templates for the pipelines; never lent out, so copying them is always safe
     private Classifier classifier;
     private StringToWordVector filter;
     private Instances header; // Stores the final, correct data structure
+    private CompiledModel nativeModel; // Set when loaded from a model bundle
+    private String[] categoryNames; // Class attribute values, by class index
+    private long modelFingerprint; // CRC-32C of the model files loaded
+    private volatile PredictionCache predictionCache; // Optional, null when disabled
+
+    private final int maxConcurrency;
+    private final BlockingQueue<Pipeline> idlePipelines; // null for bundles, which need no pipelines
+    private final AtomicInteger createdPipelines = new AtomicInteger();
+
+    /**
+     * One caller's private copy of everything predictCategory() mutates.
+     */
+    private static class Pipeline {
+        final StringToWordVector filter;
+        final Classifier classifier;
+        final Instances header;
+        final Attribute descriptionAttribute;
+
+        Pipeline(StringToWordVector filter, Classifier classifier, Instances header) {
+            this.filter = filter;
+            this.classifier = classifier;
+            // A string-free copy gives this pipeline its own Description attribute
+            this.header = header.stringFreeStructure();
+            this.descriptionAttribute = this.header.attribute("Description");
+        }
+    }
 
     public ExpenseCategorizer() throws Exception {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a categorizer from a binary model bundle. Predictions are thread-safe
+     * without any pipeline copies because the native model is immutable.
+     *
+     * @param bundle The loaded model bundle
+     */
+    public ExpenseCategorizer(ModelBundle bundle) {
+        this.maxConcurrency = Runtime.getRuntime().availableProcessors();
+        this.idlePipelines = null;
+        this.header = bundle.getHeader();
+        this.nativeModel = bundle.getModel();
+        this.modelFingerprint = bundle.getFingerprint();
+        this.categoryNames = classValues(header);
+        if (!Arrays.equals(categoryNames, nativeModel.getClassNames())) {
+            throw new IllegalArgumentException("Model bundle classes do not match its header");
+        }
+    }
+
+    /**
+     * Loads the fastest available model: the binary bundle if ModelTrainer has written
+     * one, otherwise the serialized Weka models.
+     *
+     * @param maxConcurrency Maximum number of concurrent Weka predictions (ignored for bundles)
+     * @return The loaded categorizer
+     * @throws Exception If no model can be loaded
+     */
+    public static ExpenseCategorizer load(int maxConcurrency) throws Exception {
+        if (ModelBundle.exists()) {
+            return new ExpenseCategorizer(ModelBundle.load(ModelBundle.DEFAULT_FILE));
+        }
+        return new ExpenseCategorizer(maxConcurrency);
+    }
+
+    /**
+     * @param maxConcurrency Maximum number of predictions that may run at the same time
+     */
+    public ExpenseCategorizer(int maxConcurrency) throws Exception {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.idlePipelines = new ArrayBlockingQueue<>(this.maxConcurrency);
+
         // Load the trained model and filter
         classifier = (Classifier) SerializationHelper.read("expense-classifier.model");
         filter = (StringToWordVector) SerializationHelper.read("expense-filter.model");
+        CRC32C crc = new CRC32C();
+        crc.update(Files.readAllBytes(Path.of("expense-classifier.model")));
+        crc.update(Files.readAllBytes(Path.of("expense-filter.model")));
+        modelFingerprint = crc.getValue();
 
         // THIS IS THE FIX: Create the header by loading the data AND applying
         // the NominalToString filter, ensuring the Description attribute is STRING type.
@@ -41,21 +148,217 @@ public class ExpenseCategorizer {
             this.header = Filter.useFilter(data, ntsFilter);
             this.header.setClassIndex(this.header.numAttributes() - 1);
         }
+        this.categoryNames = classValues(header);
+
+        // The loaded models stay untouched as templates; the first pipeline is a copy,
+        // further copies are made on demand
+        idlePipelines.add(newPipeline());
+        createdPipelines.incrementAndGet();
+    }
+
+    /**
+     * Turns on memoization of predictions, keyed on the normalized description.
+     *
+     * @param maxEntries Maximum number of cached descriptions, or 0 to disable the cache
+     */
+    public void enablePredictionCache(int maxEntries) {
+        this.predictionCache = maxEntries > 0 ? new PredictionCache(maxEntries) : null;
+    }
+
+    /**
+     * @return A checksum of the loaded model files, which changes when the model is
+     *         retrained or updated
+     */
+    public long getModelFingerprint() {
+        return modelFingerprint;
+    }
+
+    /**
+     * @return The prediction cache, or null if caching is disabled
+     */
+    public PredictionCache getPredictionCache() {
+        return predictionCache;
     }
 
     public String predictCategory(String description) throws Exception {
-        // Create an instance based on the correct STRING header
-        Instance newInstance = new DenseInstance(header.numAttributes());
-        newInstance.setDataset(header);
-        newInstance.setValue(header.attribute("Description"), description);
+        return categoryNames[predictCategoryIndex(description)];
+    }
 
-        // Apply the loaded filter
-        filter.input(newInstance);
-        Instance filteredInstance = filter.output();
+    /**
+     * Predicts the category as a class index, which lets callers aggregate into
+     * arrays instead of maps keyed on the category name.
+     *
+     * @param description The transaction description
+     * @return Index into getCategoryNames()
+     * @throws Exception If the prediction fails
+     */
+    public int predictCategoryIndex(String description) throws Exception {
+        PredictionCache cache = predictionCache;
+        if (cache == null) {
+            return classify(description);
+        }
+
+        // Classify the key itself, so the cached category does not depend on which
+        // variant of a description happened to be seen first
+        String key = PredictionCache.normalize(description);
+        int categoryIndex = cache.get(key);
+        if (categoryIndex < 0) {
+            categoryIndex = classify(key);
+            cache.put(key, categoryIndex);
+        }
+        return categoryIndex;
+    }
+
+    /**
+     * Predicts the categories of a run of descriptions on the calling thread. Without a
+     * prediction cache the Weka models borrow one pipeline for the whole run instead of
+     * one per description, which is what makes micro-batching worthwhile.
+     *
+     * @param descriptions Descriptions to classify
+     * @param from Index of the first description
+     * @param to Index after the last description
+     * @param categories Receives the class index of each description, at the same index
+     * @throws Exception If a prediction fails
+     */
+    public void predictCategoryIndices(String[] descriptions, int from, int to, int[] categories) throws Exception {
+        if (nativeModel != null || predictionCache != null) {
+            for (int i = from; i < to; i++) {
+                categories[i] = predictCategoryIndex(descriptions[i]);
+            }
+            return;
+        }
+
+        Pipeline pipeline = borrowPipeline();
+        try {
+            for (int i = from; i < to; i++) {
+                categories[i] = classify(pipeline, descriptions[i]);
+            }
+        } finally {
+            idlePipelines.add(pipeline);
+        }
+    }
+
+    /**
+     * @return Category names in class index order
+     */
+    public String[] getCategoryNames() {
+        return categoryNames.clone();
+    }
+
+    /**
+     * Classifies a batch of descriptions on the given executor. The batch is cut into
+     * slices so each task borrows a pipeline once; any executor works, including
+     * Executors.newVirtualThreadPerTaskExecutor().
+     *
+     * @param descriptions Descriptions to classify
+     * @param executor Executor that runs the classification tasks
+     * @return Categories in the same order as the descriptions
+     * @throws Exception If any prediction fails
+     */
+    public List<String> predictCategories(List<String> descriptions, ExecutorService executor) throws Exception {
+        String[] batch = descriptions.toArray(new String[0]);
+        int[] categoryIndices = new int[batch.length];
+        int sliceSize = Math.max(MIN_BATCH_SLICE, (descriptions.size() + maxConcurrency * 4 - 1) / (maxConcurrency * 4));
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < descriptions.size(); start += sliceSize) {
+            int from = start;
+            int to = Math.min(descriptions.size(), start + sliceSize);
+            futures.add(executor.submit(() -> {
+                predictCategoryIndices(batch, from, to, categoryIndices);
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+        String[] categories = new String[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            categories[i] = categoryNames[categoryIndices[i]];
+        }
+        return Arrays.asList(categories);
+    }
+
+    /**
+     * @return Maximum number of predictions that may run at the same time
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    private int classify(String description) throws Exception {
+        if (nativeModel != null) {
+            return nativeModel.predictIndex(description);
+        }
+
+        Pipeline pipeline = borrowPipeline();
+        try {
+            return classify(pipeline, description);
+        } finally {
+            idlePipelines.add(pipeline);
+        }
+    }
+
+    private static int classify(Pipeline pipeline, String description) throws Exception {
+        // Create an instance based on the correct STRING header. setStringValue()
+        // replaces the attribute's single value so the header never grows.
+        Instance newInstance = new DenseInstance(pipeline.header.numAttributes());
+        newInstance.setDataset(pipeline.header);
+        pipeline.descriptionAttribute.setStringValue(description);
+        newInstance.setValue(pipeline.descriptionAttribute, 0);
+
+        // Apply the pipeline's copy of the filter
+        pipeline.filter.input(newInstance);
+        Instance filteredInstance = pipeline.filter.output();
 
         // Classify the instance
-        double predictionIndex = classifier.classifyInstance(filteredInstance);
-        return header.classAttribute().value((int) predictionIndex);
+        double predictionIndex = pipeline.classifier.classifyInstance(filteredInstance);
+        return (int) predictionIndex;
+    }
+
+    private static String[] classValues(Instances header) {
+        Attribute classAttribute = header.classAttribute();
+        String[] values = new String[classAttribute.numValues()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = classAttribute.value(i);
+        }
+        return values;
+    }
+
+    /**
+     * Takes an idle pipeline, creating a copy of the models if fewer than
+     * maxConcurrency exist, or otherwise waiting for one to be returned.
+     */
+    private Pipeline borrowPipeline() throws Exception {
+        Pipeline pipeline = idlePipelines.poll();
+        if (pipeline != null) {
+            return pipeline;
+        }
+        if (createdPipelines.getAndIncrement() < maxConcurrency) {
+            try {
+                return newPipeline();
+            } catch (Exception e) {
+                createdPipelines.decrementAndGet();
+                throw e;
+            }
+        }
+        createdPipelines.decrementAndGet();
+        return idlePipelines.take();
+    }
+
+    /**
+     * Copies the template models into a new pipeline. The templates are never used for
+     * predictions, so they cannot change while they are being serialized for the copy.
+     */
+    private Pipeline newPipeline() throws Exception {
+        return new Pipeline((StringToWordVector) Filter.makeCopy(filter),
+                            AbstractClassifier.makeCopy(classifier), header);
     }
 
     public static void main(String[] args) {
@@ -76,6 +379,19 @@ public class ExpenseCategorizer {
                 String category = categorizer.predictCategory(desc);
                 System.out.println("✓ \"" + desc + "\" -> " + category);
             }
+
+            // Batch classification across virtual threads
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                batch.add(testDescriptions[i % testDescriptions.length] + " " + i);
+            }
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                long start = System.nanoTime();
+                categorizer.predictCategories(batch, executor);
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("\nClassified " + batch.size() + " descriptions in " + elapsedMs +
+                                   " ms using up to " + categorizer.getMaxConcurrency() + " concurrent pipelines");
+            }
         } catch (Exception e) {
             System.err.println("An error occurred:");
             e.printStackTrace();
@@ -0,0 +1,354 @@
+package com.afsar.xpence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * HashedCategorizer is a naive Bayes classifier over the hashed features of a
+ * HashedFeatureExtractor. Unlike the word model it needs no vocabulary: memory is
+ * fixed by the dimension (dimension x classes counts and score deltas) however many
+ * distinct merchants the training data contains, and rows with new words can be
+ * learned at any time without a full retrain.
+ *
+ * The model is multinomial over the distinct features of a description, with additive
+ * smoothing. (A Bernoulli model like the word model's also scores every absent
+ * feature; over tens of thousands of mostly empty buckets that term swamps the
+ * evidence.) The score of a class is its log prior plus one precomputed log
+ * likelihood per present feature. The per-class document counts are kept so that a
+ * Builder can be resumed from a loaded model and more rows folded in.
+ */
+public class HashedCategorizer implements CompiledModel {
+
+    // Additive smoothing of the feature counts; 0.1 did best in main()'s cross-validation
+    private static final double ALPHA = 0.1;
+
+    private final HashedFeatureExtractor extractor;
+    private final String[] classNames;
+    private final int[] featureCounts;      // [feature * numClasses + class] documents with the feature
+    private final long[] classCounts;       // [class] documents
+    private final double[] baseScores;      // [class]
+    private final float[] featureDeltas;    // [feature * numClasses + class]
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Per-thread working space for predictions.
+     */
+    private static class Scratch {
+        final HashedFeatureExtractor.Scratch features = new HashedFeatureExtractor.Scratch();
+        final double[] scores;
+
+        Scratch(int numClasses) {
+            scores = new double[numClasses];
+        }
+    }
+
+    private HashedCategorizer(HashedFeatureExtractor extractor, String[] classNames,
+                              int[] featureCounts, long[] classCounts) {
+        this.extractor = extractor;
+        this.classNames = classNames;
+        this.featureCounts = featureCounts;
+        this.classCounts = classCounts;
+
+        int numClasses = classNames.length;
+        int dimension = extractor.getDimension();
+        long documents = 0;
+        for (long count : classCounts) {
+            documents += count;
+        }
+
+        // Per class: total feature occurrences, for the smoothed feature probabilities
+        long[] classFeatures = new long[numClasses];
+        for (int i = 0; i < featureCounts.length; i++) {
+            classFeatures[i % numClasses] += featureCounts[i];
+        }
+
+        // log P(c), plus log P(f | c) for every feature present in a description
+        baseScores = new double[numClasses];
+        featureDeltas = new float[dimension * numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            baseScores[c] = Math.log((classCounts[c] + 1.0) / (documents + numClasses));
+            double denominator = Math.log(classFeatures[c] + ALPHA * dimension);
+            for (int f = 0; f < dimension; f++) {
+                featureDeltas[f * numClasses + c] = (float) (Math.log(featureCounts[f * numClasses + c] + ALPHA) - denominator);
+            }
+        }
+
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(numClasses));
+    }
+
+    /**
+     * Collects document counts for a HashedCategorizer. Not thread-safe: use one
+     * Builder per thread and merge() them.
+     */
+    public static class Builder {
+        private final HashedFeatureExtractor extractor;
+        private final String[] classNames;
+        private final int[] featureCounts;
+        private final long[] classCounts;
+        private final HashedFeatureExtractor.Scratch scratch = new HashedFeatureExtractor.Scratch();
+
+        /**
+         * @param extractor The feature extractor
+         * @param classNames Category names in class index order
+         */
+        public Builder(HashedFeatureExtractor extractor, String[] classNames) {
+            this(extractor, classNames.clone(), new int[extractor.getDimension() * classNames.length],
+                 new long[classNames.length]);
+        }
+
+        private Builder(HashedFeatureExtractor extractor, String[] classNames, int[] featureCounts, long[] classCounts) {
+            this.extractor = extractor;
+            this.classNames = classNames;
+            this.featureCounts = featureCounts;
+            this.classCounts = classCounts;
+        }
+
+        /**
+         * Counts one labeled description.
+         *
+         * @param description The transaction description
+         * @param classIndex Index of its category
+         */
+        public void learn(CharSequence description, int classIndex) {
+            int numClasses = classNames.length;
+            int count = extractor.extract(description, scratch);
+            int[] features = scratch.features();
+            for (int i = 0; i < count; i++) {
+                featureCounts[features[i] * numClasses + classIndex]++;
+            }
+            classCounts[classIndex]++;
+        }
+
+        /**
+         * Adds the counts of another builder with the same extractor and classes.
+         *
+         * @param other Builder to merge in
+         */
+        public void merge(Builder other) {
+            if (other.featureCounts.length != featureCounts.length || !Arrays.equals(other.classNames, classNames)) {
+                throw new IllegalArgumentException("Cannot merge builders with different dimensions or categories");
+            }
+            for (int i = 0; i < featureCounts.length; i++) {
+                featureCounts[i] += other.featureCounts[i];
+            }
+            for (int c = 0; c < classCounts.length; c++) {
+                classCounts[c] += other.classCounts[c];
+            }
+        }
+
+        /**
+         * @return A classifier with the counts so far; the builder can keep learning
+         */
+        public HashedCategorizer build() {
+            return new HashedCategorizer(extractor, classNames, featureCounts.clone(), classCounts.clone());
+        }
+    }
+
+    /**
+     * @return A builder that continues from this model's counts
+     */
+    public Builder toBuilder() {
+        return new Builder(extractor, classNames, featureCounts.clone(), classCounts.clone());
+    }
+
+    /**
+     * Predicts the class index of a description.
+     *
+     * @param description The transaction description
+     * @return Index into getClassNames()
+     */
+    @Override
+    public int predictIndex(CharSequence description) {
+        Scratch work = scratch.get();
+        double[] scores = work.scores;
+        System.arraycopy(baseScores, 0, scores, 0, scores.length);
+        int numClasses = scores.length;
+
+        int count = extractor.extract(description, work.features);
+        int[] features = work.features.features();
+        for (int i = 0; i < count; i++) {
+            int base = features[i] * numClasses;
+            for (int c = 0; c < numClasses; c++) {
+                scores[c] += featureDeltas[base + c];
+            }
+        }
+
+        // First maximum wins, as in the word model
+        int best = 0;
+        for (int c = 1; c < numClasses; c++) {
+            if (scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Category names, indexed by class index
+     */
+    @Override
+    public String[] getClassNames() {
+        return classNames.clone();
+    }
+
+    public HashedFeatureExtractor getExtractor() {
+        return extractor;
+    }
+
+    /**
+     * @return Number of training documents seen
+     */
+    public long getDocumentCount() {
+        long documents = 0;
+        for (long count : classCounts) {
+            documents += count;
+        }
+        return documents;
+    }
+
+    /**
+     * @return Approximate heap size of the counts and score tables in bytes
+     */
+    public long memoryBytes() {
+        return 4L * featureCounts.length + 4L * featureDeltas.length + 8L * (classCounts.length + baseScores.length);
+    }
+
+    /**
+     * Writes the extractor settings, class names and the non-zero counts; the score
+     * tables are rebuilt by read().
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        extractor.write(out);
+        out.writeInt(classNames.length);
+        for (int c = 0; c < classNames.length; c++) {
+            out.writeUTF(classNames[c]);
+            out.writeLong(classCounts[c]);
+        }
+        int nonZero = 0;
+        for (int count : featureCounts) {
+            if (count != 0) {
+                nonZero++;
+            }
+        }
+        out.writeInt(nonZero);
+        for (int i = 0; i < featureCounts.length; i++) {
+            if (featureCounts[i] != 0) {
+                out.writeInt(i);
+                out.writeInt(featureCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a model stored by write(), e.g. inside a ModelBundle.
+     */
+    static HashedCategorizer read(DataInput in) throws IOException {
+        HashedFeatureExtractor extractor = HashedFeatureExtractor.read(in);
+        int numClasses = in.readInt();
+        String[] classNames = new String[numClasses];
+        long[] classCounts = new long[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            classNames[c] = in.readUTF();
+            classCounts[c] = in.readLong();
+        }
+        int[] featureCounts = new int[extractor.getDimension() * numClasses];
+        int nonZero = in.readInt();
+        for (int i = 0; i < nonZero; i++) {
+            int index = in.readInt();
+            if (index < 0 || index >= featureCounts.length) {
+                throw new IOException("Corrupt hashed model: feature index " + index + " out of range");
+            }
+            featureCounts[index] = in.readInt();
+        }
+        return new HashedCategorizer(extractor, classNames, featureCounts, classCounts);
+    }
+
+    /**
+     * Compares the hashed model with the word model on training-data.csv using 10-fold
+     * cross-validation, for several dimensions and with and without character n-grams,
+     * and reports model memory and per-call latency.
+     */
+    public static void main(String[] args) {
+        try {
+            int folds = 10;
+            OnlineTrainer trainer = new OnlineTrainer(Runtime.getRuntime().availableProcessors());
+            List<OnlineTrainer.LabeledRow> rows;
+            try (InputStream is = HashedCategorizer.class.getClassLoader().getResourceAsStream("training-data.csv")) {
+                if (is == null) {
+                    throw new IOException("training-data.csv not found in resources.");
+                }
+                rows = new ArrayList<>(trainer.readLabeledRows(is, "training-data.csv"));
+            }
+            Collections.shuffle(rows, new Random(42));
+            System.out.println(folds + "-fold cross-validation on " + rows.size() + " labeled rows\n");
+
+            List<HashedFeatureExtractor> extractors = List.of(
+                    new HashedFeatureExtractor(1 << 12, 0, 0),
+                    new HashedFeatureExtractor(1 << 16, 0, 0),
+                    new HashedFeatureExtractor(1 << 12, 3, 4),
+                    new HashedFeatureExtractor(1 << 14, 3, 4),
+                    new HashedFeatureExtractor(1 << 16, 3, 4),
+                    new HashedFeatureExtractor(1 << 18, 3, 4));
+
+            System.out.printf("%-38s %9s %12s %12s%n", "Model", "Accuracy", "Memory", "ns/predict");
+            report("words (current pipeline)", rows, folds, training -> trainer.compileWordModel(trainer.train(training)));
+            for (HashedFeatureExtractor extractor : extractors) {
+                report("hashed " + extractor, rows, folds, training -> trainer.trainHashed(training, extractor));
+            }
+        } catch (Exception e) {
+            System.err.println("An error occurred:");
+            e.printStackTrace();
+        }
+    }
+
+    private interface ModelFactory {
+        CompiledModel train(List<OnlineTrainer.LabeledRow> rows) throws Exception;
+    }
+
+    private static void report(String name, List<OnlineTrainer.LabeledRow> rows, int folds,
+                               ModelFactory factory) throws Exception {
+        int correct = 0;
+        CompiledModel model = null;
+        for (int fold = 0; fold < folds; fold++) {
+            List<OnlineTrainer.LabeledRow> training = new ArrayList<>();
+            List<OnlineTrainer.LabeledRow> test = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                (i % folds == fold ? test : training).add(rows.get(i));
+            }
+            model = factory.train(training);
+            List<String> classNames = Arrays.asList(model.getClassNames());
+
+            for (OnlineTrainer.LabeledRow row : test) {
+                if (model.predictIndex(row.description()) == classNames.indexOf(row.category())) {
+                    correct++;
+                }
+            }
+        }
+
+        // Latency of the last fold's model over all descriptions, after a warm-up pass
+        int rounds = 200;
+        long predictNanos = 0;
+        for (int round = -20; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (OnlineTrainer.LabeledRow row : rows) {
+                model.predictIndex(row.description());
+            }
+            if (round >= 0) {
+                predictNanos += System.nanoTime() - start;
+            }
+        }
+
+        String memory = model instanceof HashedCategorizer hashed ? hashed.memoryBytes() / 1024 + " KB" : "-";
+        System.out.printf("%-38s %8.2f%% %12s %12.0f%n", name, 100.0 * correct / rows.size(), memory,
+                          (double) predictNanos / ((long) rounds * rows.size()));
+    }
+}
\ No newline at end of file
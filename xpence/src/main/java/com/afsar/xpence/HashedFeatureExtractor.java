@@ -0,0 +1,226 @@
+package com.afsar.xpence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HashedFeatureExtractor turns a description into a sparse set of feature indices with
+ * the hashing trick, so there is no dictionary and memory does not grow with the
+ * corpus: every feature lands in one of a fixed number of buckets.
+ *
+ * Text is split on the same delimiters as Weka's WordTokenizer and lower-cased, and
+ * every run of digits is collapsed into a single '0' so order numbers and reference
+ * IDs ("IRCTC BOOKING 1452092") all share a feature. Each token contributes the whole
+ * word plus its character n-grams, taken with '<' and '>' marking the word boundaries,
+ * which lets unseen spellings of a merchant share most of their features with known
+ * ones. Features are presence flags: the result holds each bucket at most once.
+ *
+ * Instances are immutable and thread-safe; extract() only writes to the caller's scratch buffers.
+ */
+public class HashedFeatureExtractor {
+
+    public static final int DEFAULT_DIMENSION = 1 << 16;
+    public static final int DEFAULT_MIN_NGRAM = 3;
+    public static final int DEFAULT_MAX_NGRAM = 4;
+
+    // Same delimiters as weka.core.tokenizers.WordTokenizer
+    private static final String DELIMITERS = " \r\n\t.,;:'\"()?!";
+
+    private static final int WORD_SEED = 0x9747b28c;
+    private static final int NGRAM_SEED = 0x5bd1e995;
+
+    private final int dimension;
+    private final int mask;
+    private final int minNgram;
+    private final int maxNgram;
+
+    /**
+     * @param dimension Number of hash buckets, a power of two
+     * @param minNgram Shortest character n-gram (0 for words only)
+     * @param maxNgram Longest character n-gram
+     */
+    public HashedFeatureExtractor(int dimension, int minNgram, int maxNgram) {
+        if (dimension <= 0 || Integer.bitCount(dimension) != 1) {
+            throw new IllegalArgumentException("Dimension must be a power of two: " + dimension);
+        }
+        if (minNgram < 0 || (minNgram > 0 && maxNgram < minNgram)) {
+            throw new IllegalArgumentException("Invalid n-gram range: " + minNgram + ".." + maxNgram);
+        }
+        this.dimension = dimension;
+        this.mask = dimension - 1;
+        this.minNgram = minNgram;
+        this.maxNgram = minNgram == 0 ? 0 : maxNgram;
+    }
+
+    /**
+     * Creates an extractor with the default dimension and 3-4 character n-grams.
+     */
+    public HashedFeatureExtractor() {
+        this(DEFAULT_DIMENSION, DEFAULT_MIN_NGRAM, DEFAULT_MAX_NGRAM);
+    }
+
+    /**
+     * Extracts the distinct feature indices of a description.
+     *
+     * @param description The transaction description
+     * @return The sorted, distinct feature indices
+     */
+    public int[] extract(CharSequence description) {
+        Scratch scratch = new Scratch();
+        int count = extract(description, scratch);
+        return Arrays.copyOf(scratch.features, count);
+    }
+
+    /**
+     * Allocation-free variant of extract() for callers that keep scratch buffers
+     * (buffers only grow when a description is longer than any seen before).
+     *
+     * @param description The transaction description
+     * @param scratch Reusable buffers
+     * @return Number of distinct indices written to scratch.features, sorted
+     */
+    public int extract(CharSequence description, Scratch scratch) {
+        int count = 0;
+        int length = description.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isDelimiter(description.charAt(i))) {
+                i++;
+            }
+            // Normalize the token into the scratch buffer: '<' token '>', digits collapsed
+            int tokenLength = 0;
+            char[] chars = scratch.token;
+            chars[tokenLength++] = '<';
+            boolean inDigits = false;
+            while (i < length && !isDelimiter(description.charAt(i))) {
+                char c = description.charAt(i++);
+                if (c >= '0' && c <= '9') {
+                    if (inDigits) {
+                        continue;
+                    }
+                    inDigits = true;
+                    c = '0';
+                } else {
+                    inDigits = false;
+                    c = Character.toLowerCase(c);
+                }
+                if (tokenLength + 1 >= chars.length) {
+                    chars = scratch.token = Arrays.copyOf(chars, chars.length * 2);
+                }
+                chars[tokenLength++] = c;
+            }
+            if (tokenLength == 1) {
+                break; // No more tokens
+            }
+            chars[tokenLength++] = '>';
+
+            // Whole word, then every n-gram of the bounded word
+            int needed = count + 1 + (maxNgram == 0 ? 0 : (maxNgram - minNgram + 1) * tokenLength);
+            if (needed > scratch.features.length) {
+                scratch.features = Arrays.copyOf(scratch.features, Math.max(needed, scratch.features.length * 2));
+            }
+            int[] features = scratch.features;
+            features[count++] = hash(chars, 1, tokenLength - 1, WORD_SEED) & mask;
+            for (int n = minNgram; n <= maxNgram && n > 0; n++) {
+                for (int start = 0; start + n <= tokenLength; start++) {
+                    features[count++] = hash(chars, start, start + n, NGRAM_SEED + n) & mask;
+                }
+            }
+        }
+        return sortDistinct(scratch.features, count);
+    }
+
+    /**
+     * Reusable buffers for extract(); one per thread.
+     */
+    public static class Scratch {
+        int[] features = new int[256];
+        char[] token = new char[32];
+
+        public Scratch() {
+        }
+
+        /**
+         * @return The feature array filled by the last extract() call
+         */
+        public int[] features() {
+            return features;
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getMinNgram() {
+        return minNgram;
+    }
+
+    public int getMaxNgram() {
+        return maxNgram;
+    }
+
+    /**
+     * Writes the configuration, e.g. inside a ModelBundle.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(dimension);
+        out.writeInt(minNgram);
+        out.writeInt(maxNgram);
+    }
+
+    static HashedFeatureExtractor read(DataInput in) throws IOException {
+        int dimension = in.readInt();
+        int minNgram = in.readInt();
+        int maxNgram = in.readInt();
+        try {
+            return new HashedFeatureExtractor(dimension, minNgram, maxNgram);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt feature extractor settings: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "dimension=" + dimension + (maxNgram == 0 ? ", words only" : ", n-grams " + minNgram + "-" + maxNgram);
+    }
+
+    private static boolean isDelimiter(char c) {
+        return DELIMITERS.indexOf(c) >= 0;
+    }
+
+    /**
+     * FNV-1a over the characters followed by MurmurHash3's finalizer, so nearby strings
+     * spread over all buckets even when the dimension is small.
+     */
+    private static int hash(char[] chars, int from, int to, int seed) {
+        int h = 0x811c9dc5 ^ seed;
+        for (int i = from; i < to; i++) {
+            h = (h ^ chars[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Sorts the first count values in place and drops duplicates.
+     *
+     * @return The number of distinct values
+     */
+    private static int sortDistinct(int[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+}
\ No newline at end of file
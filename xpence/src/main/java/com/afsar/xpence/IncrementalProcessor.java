@@ -0,0 +1,294 @@
+package com.afsar.xpence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * IncrementalProcessor handles statement exports that grow by appending rows. After
+ * each run it stores a checkpoint next to the statement (statement.csv.checkpoint)
+ * with the byte offset reached, hashes of the start of the file (at least the header)
+ * and of the last complete line, and the running totals. The next run verifies those hashes, seeks the FileChannel
+ * straight to the stored offset and only parses and categorizes the new rows.
+ *
+ * If the file got shorter, its first bytes changed or the line before the offset is no
+ * longer the same, the file was rewritten rather than appended to, so the totals are
+ * rebuilt from the start. A final line without a line break may still be growing: it
+ * is included in the report but the checkpoint stops before it.
+ *
+ * The checkpoint records the categorizer's category names and a fingerprint of its model
+ * files, and is discarded if either changes, so rows categorized by an older model are
+ * recategorized after a retrain or ModelTrainer --update. A checkpoint without rollups
+ * is also discarded when rollups are wanted.
+ */
+public class IncrementalProcessor {
+
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final int MAGIC = 0x5850434b; // "XPCK"
+    private static final int VERSION = 5;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final long PREFIX_HASH_LENGTH = 64 * 1024; // hashed in addition to the header
+
+    /**
+     * Saved state: where processing stopped and what the file looked like there.
+     */
+    private record Checkpoint(long headerEnd, long prefixEnd, long prefixHash, StatementProcessor.Columns columns,
+                              long lastRecordStart, long offset, long lastRecordHash,
+                              StatementTotals totals) {
+    }
+
+    private final StatementProcessor processor;
+
+    /**
+     * @param processor The row processor
+     */
+    public IncrementalProcessor(StatementProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * @param statement Path of a statement file
+     * @return Path of its checkpoint file
+     */
+    public static Path checkpointPath(Path statement) {
+        return statement.resolveSibling(statement.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Brings the totals of a statement up to date, reading only rows appended since the
+     * last checkpoint when possible, and saves a new checkpoint.
+     *
+     * @param filePath Path to the CSV statement
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the statement cannot be read or the checkpoint cannot be written
+     */
+    public StatementTotals processFile(String filePath) throws IOException {
+        Path statement = Path.of(filePath);
+        if (!StatementFormat.of(statement).isPlainCsv()) {
+            return processor.processFile(filePath); // No checkpoint: appended rows are not at a stable offset
+        }
+        Path checkpointFile = checkpointPath(statement);
+
+        try (FileChannel channel = FileChannel.open(statement, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            Checkpoint checkpoint = null;
+            try {
+                checkpoint = readCheckpoint(checkpointFile);
+                String problem = checkpoint == null ? null : verify(checkpoint, channel, size);
+                if (problem != null) {
+                    System.out.println(problem + "; rebuilding totals from the start of the file.");
+                    checkpoint = null;
+                }
+            } catch (IOException e) {
+                System.out.println("Ignoring unusable checkpoint " + checkpointFile + " (" + e.getMessage() +
+                                   "); rebuilding totals from the start of the file.");
+            }
+
+            StatementTotals totals;
+            StatementProcessor.Columns columns;
+            long headerEnd;
+            long start;
+            if (checkpoint != null) {
+                totals = checkpoint.totals();
+                columns = checkpoint.columns();
+                headerEnd = checkpoint.headerEnd();
+                start = checkpoint.offset();
+                System.out.println("Resuming from checkpoint: " + totals.getRowCount() + " rows already processed, " +
+                                   (size - start) + " new bytes to read.");
+            } else {
+                totals = processor.newTotals();
+                columns = null;
+                headerEnd = 0;
+                start = 0;
+            }
+
+            // The reader's offsets are relative to where the channel was positioned
+            channel.position(start);
+            CsvReader reader = new CsvReader(Channels.newInputStream(channel));
+
+            if (columns == null) {
+                // Read the header row to find column indices
+                if (!reader.nextRecord()) {
+                    return totals; // Empty file, nothing to checkpoint
+                }
+                columns = StatementProcessor.detectColumns(reader.fields());
+                if (columns == null) {
+                    return null;
+                }
+                headerEnd = reader.recordEndOffset();
+            }
+
+            long lastRecordStart = checkpoint != null ? checkpoint.lastRecordStart() : 0;
+            long lastRecordEnd = checkpoint != null ? checkpoint.offset() : headerEnd;
+            byte[] savedState = null;
+
+            // Process each new data row
+            while (processor.readRecord(reader)) {
+                if (!reader.recordTerminated()) {
+                    // The final line may still be growing: checkpoint before it, report with it
+                    savedState = encode(channel, headerEnd, columns, lastRecordStart, lastRecordEnd, totals);
+                }
+
+                String warning = processor.processRecord(reader, columns, totals, totals.getRowCount() + 1);
+                if (warning != null) {
+                    System.err.println(warning);
+                }
+
+                if (reader.recordTerminated()) {
+                    lastRecordStart = start + reader.recordStartOffset();
+                    lastRecordEnd = start + reader.recordEndOffset();
+                }
+            }
+
+            if (savedState == null) {
+                savedState = encode(channel, headerEnd, columns, lastRecordStart, lastRecordEnd, totals);
+            }
+            writeAtomically(checkpointFile, savedState);
+            return totals;
+        }
+    }
+
+    /**
+     * Checks that the statement still starts with the checkpointed bytes and still has
+     * the checkpointed line just before the offset.
+     *
+     * @return A description of the mismatch, or null if the file was only appended to
+     */
+    private static String verify(Checkpoint checkpoint, FileChannel channel, long size) throws IOException {
+        if (size < checkpoint.offset()) {
+            return "Statement is shorter than at the last checkpoint";
+        }
+        if (hash(channel, 0, checkpoint.prefixEnd()) != checkpoint.prefixHash()) {
+            return "Start of the statement changed since the last checkpoint";
+        }
+        if (hash(channel, checkpoint.lastRecordStart(), checkpoint.offset()) != checkpoint.lastRecordHash()) {
+            return "Statement was rewritten since the last checkpoint";
+        }
+        return null;
+    }
+
+    /**
+     * CRC-32C of a byte range of the file, read with positional reads so the channel's
+     * own position is left alone.
+     */
+    private static long hash(FileChannel channel, long start, long end) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HASH_BUFFER_SIZE, Math.max(end - start, 1)));
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        return crc.getValue() ^ ((end - start) << 32); // mix in the length
+    }
+
+    private byte[] encode(FileChannel channel, long headerEnd, StatementProcessor.Columns columns,
+                          long lastRecordStart, long offset, StatementTotals totals) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        String[] categoryNames = processor.getCategoryNames();
+        out.writeInt(categoryNames.length);
+        for (String name : categoryNames) {
+            out.writeUTF(name);
+        }
+        out.writeLong(processor.getModelFingerprint());
+
+        long prefixEnd = Math.max(headerEnd, Math.min(offset, PREFIX_HASH_LENGTH));
+        out.writeLong(headerEnd);
+        out.writeLong(prefixEnd);
+        out.writeLong(hash(channel, 0, prefixEnd));
+        out.writeInt(columns.descriptionIndex());
+        out.writeInt(columns.amountIndex());
+        out.writeInt(columns.dateIndex());
+        out.writeLong(lastRecordStart);
+        out.writeLong(offset);
+        out.writeLong(hash(channel, lastRecordStart, offset));
+        totals.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The checkpoint, or null if there is none
+     * @throws IOException If the checkpoint is corrupt or was written for other categories
+     */
+    private Checkpoint readCheckpoint(Path checkpointFile) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(checkpointFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an xpence checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported checkpoint version " + version);
+        }
+
+        String[] categoryNames = new String[in.readInt()];
+        for (int i = 0; i < categoryNames.length; i++) {
+            categoryNames[i] = in.readUTF();
+        }
+        if (!Arrays.equals(categoryNames, processor.getCategoryNames())) {
+            throw new IOException("written for different categories");
+        }
+        if (in.readLong() != processor.getModelFingerprint()) {
+            throw new IOException("written with a different model");
+        }
+
+        long headerEnd = in.readLong();
+        long prefixEnd = in.readLong();
+        long prefixHash = in.readLong();
+        StatementProcessor.Columns columns = new StatementProcessor.Columns(in.readInt(), in.readInt(), in.readInt());
+        long lastRecordStart = in.readLong();
+        long offset = in.readLong();
+        long lastRecordHash = in.readLong();
+        StatementTotals totals = StatementTotals.read(in, processor.getCategoryNames());
+        if (processor.isRollupsEnabled() && totals.getRollups() == null) {
+            throw new IOException("written without rollups");
+        }
+        return new Checkpoint(headerEnd, prefixEnd, prefixHash, columns, lastRecordStart, offset, lastRecordHash, totals);
+    }
+
+    /**
+     * Replaces the checkpoint in one step so an interrupted run never leaves half a file.
+     */
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, content);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
\ No newline at end of file
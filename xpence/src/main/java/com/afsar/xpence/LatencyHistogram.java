@@ -0,0 +1,132 @@
+package com.afsar.xpence;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records durations in nanoseconds into log-linear buckets, in the
+ * style of HdrHistogram: values below 16 ns get one bucket each, and every power of two
+ * above that is split into 16 equal sub-buckets, so any recorded value is known to
+ * within 1/16 (about 6%) with a fixed 544-slot array covering up to about two minutes.
+ * Longer values are clamped into the last bucket.
+ *
+ * Recording is an atomic increment and never allocates; any number of threads may
+ * record and read concurrently. Percentiles report the highest value of the bucket
+ * they fall in.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 36; // up to 2^37 ns, about 137 s
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    // Slot BUCKETS holds the sum of all values
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds (negative values count as 0)
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.getAndIncrement(bucketOf(value));
+        counts.getAndAdd(BUCKETS, value);
+    }
+
+    /**
+     * Adds the recorded values of another histogram into this one.
+     *
+     * @param other Histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i <= BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.getAndAdd(i, count);
+            }
+        }
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return Sum of the recorded values in nanoseconds
+     */
+    public long getSum() {
+        return counts.get(BUCKETS);
+    }
+
+    /**
+     * @return Number of recorded values that are at most the given value (exact at
+     *         bucket boundaries, otherwise rounded down to the enclosing bucket)
+     */
+    public long countAtOrBelow(long nanos) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS && highestValueOf(i) <= nanos; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return The value at the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * @return Highest recorded value (bucket precision) in nanoseconds, or 0
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (1L << (shift + SUB_BUCKET_BITS)) + (subBucket << shift);
+        return lowest + (1L << shift) - 1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,189 @@
+package com.afsar.xpence;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * ModelBundle is the single versioned file ModelTrainer writes for fast startup.
+ * It holds the header schema (so no training CSV has to be parsed at runtime) and the
+ * compiled model: a NativeCategorizer (vocabulary and classifier parameters) or a
+ * HashedCategorizer (feature settings and counts). Loading maps the file into memory
+ * and reads it in one pass, with no Java deserialization.
+ *
+ * Layout: magic "XPMB", format version, relation name, class index, attributes
+ * (name, type, nominal values), the model kind, then the model body. Version 1 files
+ * have no model kind and always hold a NativeCategorizer.
+ */
+public class ModelBundle {
+
+    public static final String DEFAULT_FILE = "expense-model.bundle";
+
+    private static final int MAGIC = 0x58504d42; // "XPMB"
+    private static final int VERSION = 2;
+
+    private static final byte MODEL_WORDS = 0;
+    private static final byte MODEL_HASHED = 1;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_NOMINAL = 1;
+    private static final byte TYPE_NUMERIC = 2;
+
+    private final Instances header;
+    private final CompiledModel model;
+    private final long fingerprint;
+
+    /**
+     * @param header The training header (Description as STRING, class set)
+     * @param model The compiled classifier
+     */
+    public ModelBundle(Instances header, CompiledModel model) {
+        this(header, model, 0);
+    }
+
+    private ModelBundle(Instances header, CompiledModel model, long fingerprint) {
+        this.header = header;
+        this.model = model;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return true if a bundle exists at the default location
+     */
+    public static boolean exists() {
+        return Files.isRegularFile(Path.of(DEFAULT_FILE));
+    }
+
+    /**
+     * Loads a bundle through a memory-mapped read.
+     *
+     * @param path Path to the bundle file
+     * @return The loaded bundle
+     * @throws IOException If the file cannot be read or has the wrong format
+     */
+    public static ModelBundle load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not an xpence model bundle.");
+            }
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported model bundle version " + version + " in " + path +
+                                      "; re-run ModelTrainer to rebuild it.");
+            }
+
+            // Header schema
+            String relationName = in.readUTF();
+            int classIndex = in.readInt();
+            int numAttributes = in.readInt();
+            ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+            for (int i = 0; i < numAttributes; i++) {
+                String name = in.readUTF();
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_STRING -> attributes.add(new Attribute(name, (List<String>) null));
+                    case TYPE_NUMERIC -> attributes.add(new Attribute(name));
+                    case TYPE_NOMINAL -> {
+                        int numValues = in.readInt();
+                        List<String> values = new ArrayList<>(numValues);
+                        for (int v = 0; v < numValues; v++) {
+                            values.add(in.readUTF());
+                        }
+                        attributes.add(new Attribute(name, values));
+                    }
+                    default -> throw new IOException("Unknown attribute type " + type + " in " + path);
+                }
+            }
+            Instances header = new Instances(relationName, attributes, 0);
+            header.setClassIndex(classIndex);
+
+            // Classifier parameters
+            byte kind = version == 1 ? MODEL_WORDS : in.readByte();
+            CompiledModel model = switch (kind) {
+                case MODEL_WORDS -> NativeCategorizer.read(in);
+                case MODEL_HASHED -> HashedCategorizer.read(in);
+                default -> throw new IOException("Unknown model kind " + kind + " in " + path);
+            };
+            return new ModelBundle(header, model, crc.getValue());
+        }
+    }
+
+    /**
+     * Writes the bundle.
+     *
+     * @param path Path of the bundle file to write
+     * @throws IOException If the header cannot be stored or the file cannot be written
+     */
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeUTF(header.relationName());
+            out.writeInt(header.classIndex());
+            out.writeInt(header.numAttributes());
+            for (int i = 0; i < header.numAttributes(); i++) {
+                Attribute attribute = header.attribute(i);
+                out.writeUTF(attribute.name());
+                if (attribute.isString()) {
+                    out.writeByte(TYPE_STRING);
+                } else if (attribute.isNumeric()) {
+                    out.writeByte(TYPE_NUMERIC);
+                } else if (attribute.isNominal()) {
+                    out.writeByte(TYPE_NOMINAL);
+                    out.writeInt(attribute.numValues());
+                    for (int v = 0; v < attribute.numValues(); v++) {
+                        out.writeUTF(attribute.value(v));
+                    }
+                } else {
+                    throw new IOException("Unsupported attribute type for " + attribute.name());
+                }
+            }
+
+            if (model instanceof NativeCategorizer) {
+                out.writeByte(MODEL_WORDS);
+            } else if (model instanceof HashedCategorizer) {
+                out.writeByte(MODEL_HASHED);
+            } else {
+                throw new IOException("Unsupported model type " + model.getClass().getName());
+            }
+            model.write(out);
+        }
+    }
+
+    /**
+     * @return The header schema, with an empty Description attribute
+     */
+    public Instances getHeader() {
+        return header;
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * @return CRC-32C of the file the bundle was loaded from, or 0 if it was not loaded
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+}
\ No newline at end of file
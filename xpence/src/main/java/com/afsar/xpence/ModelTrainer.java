@@ -1,6 +1,7 @@
 package com.afsar.xpence;
 
 import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.core.Instances;
 import weka.core.SerializationHelper;
 import weka.core.converters.CSVLoader;
@@ -8,24 +9,157 @@ import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.NominalToString;
 import weka.filters.unsupervised.attribute.StringToWordVector;
 
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * ModelTrainer builds the expense model.
+ *
+ * Usage: ModelTrainer [--threads=N] [labeled.csv ...]   full retrain on training-data.csv plus any extra files
+ *        ModelTrainer --hashed[=DIM] [labeled.csv ...]  full retrain of a hashed-feature model (DIM buckets)
+ *        ModelTrainer --update corrections.csv ...      fold new labeled rows into the saved model
+ *        ModelTrainer --legacy                          retrain the Weka filter and classifier .model files
+ *        ModelTrainer --export-only                     rebuild the bundle from the saved .model files
+ *
+ * Full retrains and updates go through OnlineTrainer and write the model bundle and the
+ * updateable model state; labeled files need Description and Category columns. The
+ * bundle shipped with the project is exported from the .model files, so it predicts
+ * exactly like ExpenseCategorizer's Weka fallback, and no model state is shipped: the
+ * first --update needs a full retrain before it. A
+ * hashed model keeps its counts in the bundle, so --update applies to it directly when
+ * the current bundle holds one.
+ */
 public class ModelTrainer {
 
     public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean update = false;
+        int hashedDimension = 0; // 0 = word model
+        List<String> labeledFiles = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--legacy") || arg.equals("--export-only")) {
+                trainLegacy(arg.equals("--export-only"));
+                return;
+            } else if (arg.equals("--update")) {
+                update = true;
+            } else if (arg.equals("--hashed")) {
+                hashedDimension = HashedFeatureExtractor.DEFAULT_DIMENSION;
+            } else if (arg.startsWith("--hashed=")) {
+                hashedDimension = App.intOption(arg, "--hashed=", 1);
+            } else if (arg.startsWith("--threads=")) {
+                threads = App.intOption(arg, "--threads=", 1);
+            } else {
+                labeledFiles.add(arg);
+            }
+        }
+
+        OnlineTrainer trainer = new OnlineTrainer(threads);
+        NaiveBayesUpdateable classifier;
+        if (update) {
+            if (labeledFiles.isEmpty()) {
+                System.err.println("Usage: ModelTrainer --update corrections.csv ...");
+                return;
+            }
+            if (ModelBundle.exists() && ModelBundle.load(ModelBundle.DEFAULT_FILE).getModel() instanceof HashedCategorizer model) {
+                updateHashed(trainer, model, labeledFiles);
+                return;
+            }
+            if (!Files.exists(Path.of(OnlineTrainer.STATE_FILE))) {
+                System.err.println("Error: No saved model state in " + OnlineTrainer.STATE_FILE +
+                                   "; run a full retrain first.");
+                return;
+            }
+            System.out.println("Loading saved model state...");
+            classifier = trainer.loadState();
+            for (String file : labeledFiles) {
+                List<OnlineTrainer.LabeledRow> rows = readLabeledFile(trainer, file);
+                int applied = trainer.update(classifier, rows);
+                System.out.println("Folded " + applied + " of " + rows.size() + " rows from " + file + " into the model.");
+            }
+        } else {
+            System.out.println("Loading data...");
+            List<OnlineTrainer.LabeledRow> rows;
+            try (InputStream is = ModelTrainer.class.getClassLoader().getResourceAsStream("training-data.csv")) {
+                if (is == null) throw new Exception("training-data.csv not found.");
+                rows = new ArrayList<>(trainer.readLabeledRows(is, "training-data.csv"));
+            }
+            for (String file : labeledFiles) {
+                rows.addAll(readLabeledFile(trainer, file));
+            }
+
+            if (hashedDimension > 0) {
+                HashedFeatureExtractor extractor = new HashedFeatureExtractor(hashedDimension,
+                        HashedFeatureExtractor.DEFAULT_MIN_NGRAM, HashedFeatureExtractor.DEFAULT_MAX_NGRAM);
+                System.out.println("Training hashed model (" + extractor + ") on " + threads + " threads...");
+                HashedCategorizer model = trainer.trainHashed(rows, extractor);
+                System.out.println("Trained on " + rows.size() + " rows, " + model.getClassNames().length +
+                                   " categories, " + model.memoryBytes() / 1024 + " KB of model tables.");
+                saveHashed(trainer, model);
+                return;
+            }
+
+            System.out.println("Training model on " + threads + " threads...");
+            classifier = trainer.train(rows);
+            System.out.println("Trained on " + rows.size() + " rows, " + (classifier.getHeader().numAttributes() - 1) +
+                               " words, " + classifier.getHeader().numClasses() + " categories.");
+        }
+
+        System.out.println("Saving model state and bundle...");
+        trainer.saveState(classifier);
+        trainer.exportModelBundle(classifier);
+        System.out.println("Model saved to " + OnlineTrainer.STATE_FILE + " and " + ModelBundle.DEFAULT_FILE + ".");
+        trainer.printTimings();
+    }
+
+    private static void updateHashed(OnlineTrainer trainer, HashedCategorizer model, List<String> labeledFiles)
+            throws Exception {
+        System.out.println("Updating the hashed model in " + ModelBundle.DEFAULT_FILE + "...");
+        for (String file : labeledFiles) {
+            List<OnlineTrainer.LabeledRow> rows = readLabeledFile(trainer, file);
+            long before = model.getDocumentCount();
+            model = trainer.update(model, rows);
+            System.out.println("Folded " + (model.getDocumentCount() - before) + " of " + rows.size() + " rows from " +
+                               file + " into the model.");
+        }
+        saveHashed(trainer, model);
+    }
+
+    private static void saveHashed(OnlineTrainer trainer, HashedCategorizer model) throws Exception {
+        System.out.println("Saving bundle...");
+        trainer.exportModelBundle(model);
+        System.out.println("Model saved to " + ModelBundle.DEFAULT_FILE + ".");
+        trainer.printTimings();
+    }
+
+    private static List<OnlineTrainer.LabeledRow> readLabeledFile(OnlineTrainer trainer, String file) throws Exception {
+        try (InputStream is = new FileInputStream(file)) {
+            return trainer.readLabeledRows(is, file);
+        }
+    }
+
+    /**
+     * The original training flow: a StringToWordVector filter and NaiveBayes classifier
+     * saved as .model files for ExpenseCategorizer's Weka path, plus the model bundle.
+     *
+     * @param exportOnly Rebuild the bundle from the saved .model files without retraining
+     * @throws Exception If training or saving fails
+     */
+    private static void trainLegacy(boolean exportOnly) throws Exception {
         // Load Data
         System.out.println("Loading data...");
-        InputStream is = ModelTrainer.class.getClassLoader().getResourceAsStream("training-data.csv");
-        CSVLoader loader = new CSVLoader();
-        loader.setSource(is);
-        Instances data = loader.getDataSet();
-        data.setClassIndex(data.numAttributes() - 1);
-
-        // Convert Description attribute to String type
-        NominalToString ntsFilter = new NominalToString();
-        ntsFilter.setAttributeIndexes("1");
-        ntsFilter.setInputFormat(data);
-        data = Filter.useFilter(data, ntsFilter);
+        Instances data = loadTrainingData();
+
+        if (exportOnly) {
+            // Rebuild the model bundle from the saved models without retraining
+            NaiveBayes classifier = (NaiveBayes) SerializationHelper.read("expense-classifier.model");
+            StringToWordVector stwFilter = (StringToWordVector) SerializationHelper.read("expense-filter.model");
+            exportModelBundle(data, stwFilter, classifier);
+            return;
+        }
 
         // Create and build the StringToWordVector filter
         System.out.println("Building filter...");
@@ -44,5 +178,48 @@ public class ModelTrainer {
         SerializationHelper.write("expense-classifier.model", classifier);
         SerializationHelper.write("expense-filter.model", stwFilter); // SAVE THE FILTER
         System.out.println("Model and filter saved successfully.");
+
+        exportModelBundle(data, stwFilter, classifier);
+    }
+
+    /**
+     * Loads training-data.csv with the Description attribute converted to STRING type.
+     *
+     * @return The training instances, class index set
+     * @throws Exception If the training data cannot be loaded
+     */
+    static Instances loadTrainingData() throws Exception {
+        try (InputStream is = ModelTrainer.class.getClassLoader().getResourceAsStream("training-data.csv")) {
+            if (is == null) throw new Exception("training-data.csv not found.");
+
+            CSVLoader loader = new CSVLoader();
+            loader.setSource(is);
+            Instances data = loader.getDataSet();
+            data.setClassIndex(data.numAttributes() - 1);
+
+            // Convert Description attribute to String type
+            NominalToString ntsFilter = new NominalToString();
+            ntsFilter.setAttributeIndexes("1");
+            ntsFilter.setInputFormat(data);
+            data = Filter.useFilter(data, ntsFilter);
+            data.setClassIndex(data.numAttributes() - 1);
+            return data;
+        }
+    }
+
+    /**
+     * Compiles the filter and classifier into a NativeCategorizer and writes it, together
+     * with the header schema, as the binary model bundle loaded at startup.
+     *
+     * @param header The training data (only its schema is stored)
+     * @param stwFilter The trained StringToWordVector filter
+     * @param classifier The trained NaiveBayes classifier
+     * @throws Exception If the models cannot be compiled or written
+     */
+    static void exportModelBundle(Instances header, StringToWordVector stwFilter, NaiveBayes classifier) throws Exception {
+        System.out.println("Exporting model bundle...");
+        NativeCategorizer nativeModel = NativeCategorizer.compile(stwFilter, classifier);
+        new ModelBundle(new Instances(header, 0), nativeModel).save(ModelBundle.DEFAULT_FILE);
+        System.out.println("Model bundle saved to " + ModelBundle.DEFAULT_FILE + ".");
     }
 }
\ No newline at end of file
@@ -0,0 +1,432 @@
+package com.afsar.xpence;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.stemmers.NullStemmer;
+import weka.core.stopwords.Null;
+import weka.core.tokenizers.WordTokenizer;
+import weka.estimators.Estimator;
+import weka.filters.unsupervised.attribute.StringToWordVector;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NativeCategorizer is a Weka-free inference path for the trained NaiveBayes model.
+ *
+ * ModelTrainer compiles the StringToWordVector vocabulary and the NaiveBayes estimators
+ * into primitive arrays: an open-addressing token table and per-token log-probability
+ * deltas. Because every word attribute is a 0/1 presence flag, the score of a class is
+ * a constant (prior plus every word being absent) plus one delta per distinct word that
+ * is present, so a prediction only touches the tokens of the description. Tokens are
+ * hashed and looked up straight from the description's characters, and the scratch
+ * space is reused per thread, so predictIndex() does not allocate.
+ */
+public class NativeCategorizer implements CompiledModel {
+
+    // Weka clamps every per-attribute likelihood to at least this value
+    private static final double MIN_PROBABILITY = 1e-75;
+
+    private final String[] classNames;
+    private final double[] baseScores;      // [class]
+    private final float[] tokenDeltas;      // [token * numClasses + class]
+    private final String delimiters;
+
+    // Token table: token characters are packed into one array
+    private final char[] tokenChars;
+    private final int[] tokenOffsets;       // [token], plus one trailing end offset
+    private final int[] slots;              // open addressing, token index + 1, 0 = empty
+    private final int slotMask;
+
+    // Fast delimiter lookup for ASCII, delimiters string for the rest
+    private final boolean[] asciiDelimiters = new boolean[128];
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Per-thread working space for predictions.
+     */
+    private static class Scratch {
+        final double[] scores;
+        int[] seenTokens = new int[32];
+
+        Scratch(int numClasses) {
+            scores = new double[numClasses];
+        }
+    }
+
+    private NativeCategorizer(String[] classNames, double[] baseScores, String[] tokens,
+                              float[] tokenDeltas, String delimiters) {
+        this.classNames = classNames;
+        this.baseScores = baseScores;
+        this.tokenDeltas = tokenDeltas;
+        this.delimiters = delimiters;
+
+        for (int i = 0; i < delimiters.length(); i++) {
+            char c = delimiters.charAt(i);
+            if (c < 128) {
+                asciiDelimiters[c] = true;
+            }
+        }
+
+        // Pack token characters and build the hash table (load factor <= 0.5)
+        int totalChars = 0;
+        for (String token : tokens) {
+            totalChars += token.length();
+        }
+        tokenChars = new char[totalChars];
+        tokenOffsets = new int[tokens.length + 1];
+        int capacity = 16;
+        while (capacity < tokens.length * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        slotMask = capacity - 1;
+
+        int offset = 0;
+        for (int t = 0; t < tokens.length; t++) {
+            String token = tokens[t];
+            tokenOffsets[t] = offset;
+            token.getChars(0, token.length(), tokenChars, offset);
+            offset += token.length();
+
+            int slot = hash(tokenChars, tokenOffsets[t], offset) & slotMask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            slots[slot] = t + 1;
+        }
+        tokenOffsets[tokens.length] = offset;
+
+        int numClasses = classNames.length;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(numClasses));
+    }
+
+    /**
+     * Compiles a trained StringToWordVector filter and NaiveBayes classifier.
+     *
+     * @param filter The trained filter (its output format supplies the vocabulary)
+     * @param classifier The NaiveBayes model trained on the filter's output
+     * @return The compiled categorizer
+     * @throws Exception If the models use options the native path does not support
+     */
+    public static NativeCategorizer compile(StringToWordVector filter, NaiveBayes classifier) throws Exception {
+        if (!(filter.getTokenizer() instanceof WordTokenizer tokenizer)
+                || !(filter.getStemmer() instanceof NullStemmer)
+                || !(filter.getStopwordsHandler() instanceof Null)
+                || filter.getLowerCaseTokens()
+                || filter.getOutputWordCounts()
+                || !filter.getAttributeNamePrefix().isEmpty()) {
+            throw new Exception("Unsupported StringToWordVector options: " + String.join(" ", filter.getOptions()));
+        }
+        return compile(filter.getOutputFormat(), tokenizer.getDelimiters(), classifier);
+    }
+
+    /**
+     * Compiles a NaiveBayes classifier trained on 0/1 word-presence attributes, such as
+     * the one OnlineTrainer builds without a StringToWordVector filter.
+     *
+     * @param format The training format: the class attribute plus one numeric attribute per token
+     * @param delimiters The characters that separate tokens (as for WordTokenizer)
+     * @param classifier The NaiveBayes model trained on that format
+     * @return The compiled categorizer
+     * @throws Exception If the classifier uses options the native path does not support
+     */
+    public static NativeCategorizer compile(Instances format, String delimiters, NaiveBayes classifier) throws Exception {
+        if (classifier.getUseKernelEstimator() || classifier.getUseSupervisedDiscretization()) {
+            throw new Exception("Unsupported NaiveBayes options: " + String.join(" ", classifier.getOptions()));
+        }
+
+        Attribute classAttribute = format.classAttribute();
+        int numClasses = classAttribute.numValues();
+
+        String[] classNames = new String[numClasses];
+        double[] baseScores = new double[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            classNames[c] = classAttribute.value(c);
+            baseScores[c] = Math.log(classifier.getClassEstimator().getProbability(c));
+        }
+
+        // Estimators are indexed over the non-class attributes in order
+        Estimator[][] estimators = classifier.getConditionalEstimators();
+        List<String> tokens = new ArrayList<>();
+        List<float[]> deltas = new ArrayList<>();
+        int attIndex = 0;
+        for (int a = 0; a < format.numAttributes(); a++) {
+            if (a == format.classIndex()) {
+                continue;
+            }
+            Attribute attribute = format.attribute(a);
+            if (!attribute.isNumeric()) {
+                throw new Exception("Unexpected non-word attribute: " + attribute.name());
+            }
+
+            float[] delta = new float[numClasses];
+            for (int c = 0; c < numClasses; c++) {
+                double absent = Math.log(Math.max(MIN_PROBABILITY, estimators[attIndex][c].getProbability(0)));
+                double present = Math.log(Math.max(MIN_PROBABILITY, estimators[attIndex][c].getProbability(1)));
+                baseScores[c] += absent;
+                delta[c] = (float) (present - absent);
+            }
+            tokens.add(attribute.name());
+            deltas.add(delta);
+            attIndex++;
+        }
+
+        float[] tokenDeltas = new float[tokens.size() * numClasses];
+        for (int t = 0; t < tokens.size(); t++) {
+            System.arraycopy(deltas.get(t), 0, tokenDeltas, t * numClasses, numClasses);
+        }
+        return new NativeCategorizer(classNames, baseScores, tokens.toArray(new String[0]),
+                                     tokenDeltas, delimiters);
+    }
+
+    /**
+     * Reads a compiled model stored by write(), e.g. inside a ModelBundle.
+     */
+    static NativeCategorizer read(DataInput in) throws IOException {
+        String delimiters = in.readUTF();
+        int numClasses = in.readInt();
+        String[] classNames = new String[numClasses];
+        double[] baseScores = new double[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            classNames[c] = in.readUTF();
+            baseScores[c] = in.readDouble();
+        }
+        int numTokens = in.readInt();
+        String[] tokens = new String[numTokens];
+        float[] tokenDeltas = new float[numTokens * numClasses];
+        for (int t = 0; t < numTokens; t++) {
+            tokens[t] = in.readUTF();
+            for (int c = 0; c < numClasses; c++) {
+                tokenDeltas[t * numClasses + c] = in.readFloat();
+            }
+        }
+        return new NativeCategorizer(classNames, baseScores, tokens, tokenDeltas, delimiters);
+    }
+
+    /**
+     * Writes the compiled model; ModelBundle stores it after the header schema.
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        int numClasses = classNames.length;
+        out.writeUTF(delimiters);
+        out.writeInt(numClasses);
+        for (int c = 0; c < numClasses; c++) {
+            out.writeUTF(classNames[c]);
+            out.writeDouble(baseScores[c]);
+        }
+        int numTokens = tokenOffsets.length - 1;
+        out.writeInt(numTokens);
+        for (int t = 0; t < numTokens; t++) {
+            out.writeUTF(new String(tokenChars, tokenOffsets[t], tokenOffsets[t + 1] - tokenOffsets[t]));
+            for (int c = 0; c < numClasses; c++) {
+                out.writeFloat(tokenDeltas[t * numClasses + c]);
+            }
+        }
+    }
+
+    /**
+     * Predicts the class index of a description.
+     *
+     * @param description The transaction description
+     * @return Index into getClassNames()
+     */
+    @Override
+    public int predictIndex(CharSequence description) {
+        Scratch work = scratch.get();
+        double[] scores = work.scores;
+        System.arraycopy(baseScores, 0, scores, 0, scores.length);
+        int numClasses = scores.length;
+        int seen = 0;
+
+        int length = description.length();
+        int i = 0;
+        while (i < length) {
+            // Skip delimiters, then hash the token in place
+            while (i < length && isDelimiter(description.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            int h = 0;
+            while (i < length && !isDelimiter(description.charAt(i))) {
+                h = 31 * h + description.charAt(i);
+                i++;
+            }
+            if (i == start) {
+                break;
+            }
+
+            int token = lookup(description, start, i, h);
+            if (token < 0 || contains(work.seenTokens, seen, token)) {
+                continue; // Unknown word, or already counted (features are presence flags)
+            }
+            if (seen == work.seenTokens.length) {
+                work.seenTokens = Arrays.copyOf(work.seenTokens, seen * 2);
+            }
+            work.seenTokens[seen++] = token;
+
+            int base = token * numClasses;
+            for (int c = 0; c < numClasses; c++) {
+                scores[c] += tokenDeltas[base + c];
+            }
+        }
+
+        // First maximum wins, as in Weka
+        int best = 0;
+        for (int c = 1; c < numClasses; c++) {
+            if (scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Predicts the category of a description.
+     *
+     * @param description The transaction description
+     * @return The category name
+     */
+    public String predictCategory(CharSequence description) {
+        return classNames[predictIndex(description)];
+    }
+
+    /**
+     * @return Category names, indexed by class index
+     */
+    @Override
+    public String[] getClassNames() {
+        return classNames.clone();
+    }
+
+    public int numClasses() {
+        return classNames.length;
+    }
+
+    private boolean isDelimiter(char c) {
+        return c < 128 ? asciiDelimiters[c] : delimiters.indexOf(c) >= 0;
+    }
+
+    private int lookup(CharSequence text, int start, int end, int h) {
+        int slot = spread(h) & slotMask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int token = entry - 1;
+            int tokenStart = tokenOffsets[token];
+            if (tokenOffsets[token + 1] - tokenStart == end - start && matches(text, start, end, tokenStart)) {
+                return token;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    private boolean matches(CharSequence text, int start, int end, int tokenStart) {
+        for (int i = start, j = tokenStart; i < end; i++, j++) {
+            if (text.charAt(i) != tokenChars[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hash(char[] chars, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + chars[i];
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Compares the native predictions with the Weka model on training-data.csv and
+     * measures the per-call latency of both.
+     */
+    public static void main(String[] args) {
+        try {
+            String bundleFile = args.length > 0 ? args[0] : ModelBundle.DEFAULT_FILE;
+            CompiledModel nativeCategorizer = ModelBundle.load(bundleFile).getModel();
+            String[] classNames = nativeCategorizer.getClassNames();
+            ExpenseCategorizer categorizer = new ExpenseCategorizer();
+
+            List<String> descriptions = new ArrayList<>();
+            try (InputStream is = NativeCategorizer.class.getClassLoader().getResourceAsStream("training-data.csv");
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                String line = reader.readLine(); // header
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = CsvReader.parseLine(line);
+                    if (fields.length >= 2 && !fields[0].isBlank()) {
+                        descriptions.add(fields[0]);
+                    }
+                }
+            }
+
+            // Step 1: Verify that every prediction matches the Weka model
+            int mismatches = 0;
+            for (String description : descriptions) {
+                String expected = categorizer.predictCategory(description);
+                String actual = classNames[nativeCategorizer.predictIndex(description)];
+                if (!expected.equals(actual)) {
+                    mismatches++;
+                    System.out.println("Mismatch: \"" + description + "\" weka=" + expected + " native=" + actual);
+                }
+            }
+            System.out.println("Verified " + descriptions.size() + " training descriptions, " + mismatches + " mismatches.");
+
+            // Step 2: Compare per-call latency (after a warm-up pass)
+            int rounds = 20;
+            long wekaNanos = time(descriptions, 2, d -> categorizer.predictCategory(d));
+            long nativeNanos = time(descriptions, rounds, d -> nativeCategorizer.predictIndex(d));
+            double wekaPerCall = (double) wekaNanos / (2 * descriptions.size());
+            double nativePerCall = (double) nativeNanos / (rounds * descriptions.size());
+            System.out.printf("Weka   : %10.1f ns per prediction%n", wekaPerCall);
+            System.out.printf("Native : %10.1f ns per prediction (%.0fx faster)%n", nativePerCall, wekaPerCall / nativePerCall);
+        } catch (Exception e) {
+            System.err.println("An error occurred:");
+            e.printStackTrace();
+        }
+    }
+
+    private interface Prediction {
+        Object apply(String description) throws Exception;
+    }
+
+    private static long time(List<String> descriptions, int rounds, Prediction prediction) throws Exception {
+        for (String description : descriptions) {
+            prediction.apply(description);
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String description : descriptions) {
+                prediction.apply(description);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
\ No newline at end of file
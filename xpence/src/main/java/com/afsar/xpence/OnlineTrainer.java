@@ -0,0 +1,527 @@
+package com.afsar.xpence;
+
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.SparseInstance;
+import weka.core.tokenizers.WordTokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * OnlineTrainer trains the expense model without Weka's StringToWordVector filter, so
+ * that it can both retrain quickly and fold new labeled rows into an existing model.
+ *
+ * A full retrain reads the labeled CSVs, counts word occurrences per class on all cores
+ * to build the vocabulary (the same words StringToWordVector would keep with its default
+ * options), turns each row into a sparse 0/1 word-presence instance in parallel and
+ * trains a NaiveBayesUpdateable on them. The rows are read with CsvReader, which
+ * parses some quoted descriptions differently from the CSVLoader behind the --legacy
+ * .model files, so the two models can disagree on a few predictions. The classifier
+ * and its header are saved to STATE_FILE together with a model bundle built from the
+ * same classifier.
+ *
+ * A full retrain is not streamed: every labeled row is held in memory while both passes
+ * run over it, and the vectorizing pass adds a sparse instance per row that Weka then
+ * copies into the training Instances. Each thread's instances are released once
+ * copied, so memory peaks at the rows, one sparse instance per row and one extra
+ * thread's worth of copies. ModelTrainer likewise reads all labeled files into one
+ * list before training.
+ *
+ * An update loads STATE_FILE and passes each new labeled row to updateClassifier(), so
+ * user corrections take effect without retraining. The vocabulary is fixed at the last
+ * full retrain: words it does not contain are ignored until the next one.
+ *
+ * trainHashed() builds a HashedCategorizer instead: each thread counts hashed features
+ * of its range of rows and the counts are merged, with no vocabulary phase. Its counts
+ * live in the model bundle itself, so updates need no separate state file and new
+ * words are learned too.
+ *
+ * Every run records how long each phase took.
+ */
+public class OnlineTrainer {
+
+    public static final String STATE_FILE = "expense-updateable.model";
+
+    // StringToWordVector's defaults: keep the 1000 most frequent words of each class
+    private static final int WORDS_TO_KEEP = 1000;
+
+    private static final String DESCRIPTION_ATTRIBUTE = "Description";
+    private static final String CLASS_ATTRIBUTE = "Category";
+
+    /**
+     * A labeled training row.
+     */
+    public record LabeledRow(String description, String category) {
+    }
+
+    private final int threads;
+    private final String delimiters = new WordTokenizer().getDelimiters();
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+
+    /**
+     * @param threads Number of threads used for token counting and vectorizing
+     */
+    public OnlineTrainer(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Reads labeled rows from a CSV with Description and Category columns. Rows with a
+     * blank description or category are skipped with a warning.
+     *
+     * @param in The CSV input
+     * @param source Name of the input, used in warnings
+     * @return The labeled rows in file order
+     * @throws IOException If the input cannot be read or lacks the columns
+     */
+    public List<LabeledRow> readLabeledRows(InputStream in, String source) throws IOException {
+        long start = System.nanoTime();
+        List<LabeledRow> rows = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(in)) {
+            if (!reader.nextRecord()) {
+                return rows;
+            }
+            int descriptionIndex = -1;
+            int categoryIndex = -1;
+            String[] headers = reader.fields();
+            for (int i = 0; i < headers.length; i++) {
+                String header = headers[i].trim().toLowerCase();
+                if (header.contains("description") || header.equals("desc")) {
+                    descriptionIndex = i;
+                } else if (header.contains("category")) {
+                    categoryIndex = i;
+                }
+            }
+            if (descriptionIndex == -1 || categoryIndex == -1) {
+                throw new IOException(source + " needs Description and Category columns; found " +
+                                      String.join(", ", headers));
+            }
+
+            long rowNumber = 0;
+            while (reader.nextRecord()) {
+                rowNumber++;
+                if (reader.isBlankRecord()) {
+                    continue;
+                }
+                if (reader.fieldCount() <= Math.max(descriptionIndex, categoryIndex)
+                        || reader.isBlank(descriptionIndex) || reader.isBlank(categoryIndex)) {
+                    System.err.println("Warning: " + source + " row " + rowNumber + " is not labeled, skipping.");
+                    continue;
+                }
+                rows.add(new LabeledRow(reader.trimmedField(descriptionIndex), reader.trimmedField(categoryIndex)));
+            }
+        }
+        addPhase("read " + source, start);
+        return rows;
+    }
+
+    /**
+     * Trains a model from scratch.
+     *
+     * @param rows All labeled rows
+     * @return The trained classifier; its header is the word-presence format
+     * @throws Exception If training fails
+     */
+    public NaiveBayesUpdateable train(List<LabeledRow> rows) throws Exception {
+        List<String> categories = categoriesOf(rows);
+        Map<String, Integer> categoryIndex = indexOf(categories);
+
+        // Phase 1: per-class term counts (repeats within a row included), counted on all cores
+        long start = System.nanoTime();
+        List<Map<String, int[]>> partialCounts = inParallel(rows.size(), (from, to) -> {
+            Map<String, int[]> counts = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                LabeledRow row = rows.get(i);
+                int c = categoryIndex.get(row.category());
+                for (String token : tokens(row.description())) {
+                    counts.computeIfAbsent(token, t -> new int[categories.size()])[c]++;
+                }
+            }
+            return counts;
+        });
+        Map<String, int[]> counts = new HashMap<>();
+        for (Map<String, int[]> partial : partialCounts) {
+            for (Map.Entry<String, int[]> entry : partial.entrySet()) {
+                int[] total = counts.computeIfAbsent(entry.getKey(), t -> new int[categories.size()]);
+                for (int c = 0; c < total.length; c++) {
+                    total[c] += entry.getValue()[c];
+                }
+            }
+        }
+        String[] vocabulary = selectVocabulary(counts, categories.size());
+        addPhase("count tokens", start);
+
+        // Phase 2: sparse word-presence instances, built on all cores
+        start = System.nanoTime();
+        Instances format = wordFormat(vocabulary, categories);
+        Map<String, Integer> tokenIndex = tokenIndex(format);
+        List<List<Instance>> partialInstances = inParallel(rows.size(), (from, to) -> {
+            List<Instance> instances = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                LabeledRow row = rows.get(i);
+                instances.add(vectorize(row.description(), categoryIndex.get(row.category()), tokenIndex, format));
+            }
+            return instances;
+        });
+        Instances data = new Instances(format, rows.size());
+        for (List<Instance> partial : partialInstances) {
+            for (Instance instance : partial) {
+                data.add(instance); // Copies the instance
+            }
+            partial.clear();
+        }
+        addPhase("vectorize", start);
+
+        // Phase 3: estimate the class priors and per-word likelihoods
+        start = System.nanoTime();
+        NaiveBayesUpdateable classifier = new NaiveBayesUpdateable();
+        classifier.buildClassifier(data);
+        addPhase("train", start);
+        return classifier;
+    }
+
+    /**
+     * Trains a hashed-feature model from scratch.
+     *
+     * @param rows All labeled rows
+     * @param extractor The feature extractor (dimension and n-gram settings)
+     * @return The trained classifier
+     * @throws Exception If training fails
+     */
+    public HashedCategorizer trainHashed(List<LabeledRow> rows, HashedFeatureExtractor extractor) throws Exception {
+        String[] categories = categoriesOf(rows).toArray(new String[0]);
+        Map<String, Integer> categoryIndex = indexOf(Arrays.asList(categories));
+
+        // Count features per range on all cores, then merge in range order
+        long start = System.nanoTime();
+        List<HashedCategorizer.Builder> builders = inParallel(rows.size(), (from, to) -> {
+            HashedCategorizer.Builder builder = new HashedCategorizer.Builder(extractor, categories);
+            for (int i = from; i < to; i++) {
+                LabeledRow row = rows.get(i);
+                builder.learn(row.description(), categoryIndex.get(row.category()));
+            }
+            return builder;
+        });
+        HashedCategorizer.Builder builder = builders.get(0);
+        for (int i = 1; i < builders.size(); i++) {
+            builder.merge(builders.get(i));
+        }
+        addPhase("count features", start);
+
+        start = System.nanoTime();
+        HashedCategorizer model = builder.build();
+        addPhase("train", start);
+        return model;
+    }
+
+    /**
+     * Folds new labeled rows into a trained model.
+     *
+     * @param classifier A model from train() or loadState()
+     * @param rows The new rows
+     * @return Number of rows applied (rows with an unknown category are skipped)
+     * @throws Exception If updating fails
+     */
+    public int update(NaiveBayesUpdateable classifier, List<LabeledRow> rows) throws Exception {
+        long start = System.nanoTime();
+        Instances format = classifier.getHeader();
+        Map<String, Integer> tokenIndex = tokenIndex(format);
+        Attribute classAttribute = format.classAttribute();
+
+        int applied = 0;
+        for (LabeledRow row : rows) {
+            int c = classAttribute.indexOfValue(row.category());
+            if (c < 0) {
+                System.err.println("Warning: Unknown category '" + row.category() + "' for \"" + row.description() +
+                                   "\"; new categories need a full retrain, skipping.");
+                continue;
+            }
+            classifier.updateClassifier(vectorize(row.description(), c, tokenIndex, format));
+            applied++;
+        }
+        addPhase("update", start);
+        return applied;
+    }
+
+    /**
+     * Folds new labeled rows into a hashed-feature model.
+     *
+     * @param model A model from trainHashed() or a model bundle
+     * @param rows The new rows
+     * @return The updated model
+     */
+    public HashedCategorizer update(HashedCategorizer model, List<LabeledRow> rows) {
+        long start = System.nanoTime();
+        Map<String, Integer> categoryIndex = indexOf(Arrays.asList(model.getClassNames()));
+        HashedCategorizer.Builder builder = model.toBuilder();
+        for (LabeledRow row : rows) {
+            Integer c = categoryIndex.get(row.category());
+            if (c == null) {
+                System.err.println("Warning: Unknown category '" + row.category() + "' for \"" + row.description() +
+                                   "\"; new categories need a full retrain, skipping.");
+                continue;
+            }
+            builder.learn(row.description(), c);
+        }
+        HashedCategorizer updated = builder.build();
+        addPhase("update", start);
+        return updated;
+    }
+
+    /**
+     * Saves the classifier for later updates.
+     *
+     * @param classifier The model to save
+     * @throws Exception If the file cannot be written
+     */
+    public void saveState(NaiveBayesUpdateable classifier) throws Exception {
+        long start = System.nanoTime();
+        SerializationHelper.write(STATE_FILE, classifier);
+        addPhase("save state", start);
+    }
+
+    /**
+     * @return The classifier saved by the last full retrain or update
+     * @throws Exception If the file is missing or unreadable
+     */
+    public NaiveBayesUpdateable loadState() throws Exception {
+        long start = System.nanoTime();
+        NaiveBayesUpdateable classifier = (NaiveBayesUpdateable) SerializationHelper.read(STATE_FILE);
+        addPhase("load state", start);
+        return classifier;
+    }
+
+    /**
+     * Compiles the classifier and writes it as the model bundle used at startup.
+     *
+     * @param classifier The model to export
+     * @throws Exception If the model cannot be compiled or written
+     */
+    public void exportModelBundle(NaiveBayesUpdateable classifier) throws Exception {
+        exportModelBundle(compileWordModel(classifier));
+    }
+
+    /**
+     * Writes a compiled model as the model bundle used at startup.
+     *
+     * @param model The model to export
+     * @throws IOException If the bundle cannot be written
+     */
+    public void exportModelBundle(CompiledModel model) throws IOException {
+        long start = System.nanoTime();
+
+        // The runtime header is the labeled-data schema: Description text plus the category
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute(DESCRIPTION_ATTRIBUTE, (List<String>) null));
+        attributes.add(new Attribute(CLASS_ATTRIBUTE, Arrays.asList(model.getClassNames())));
+        Instances header = new Instances("training-data", attributes, 0);
+        header.setClassIndex(1);
+
+        new ModelBundle(header, model).save(ModelBundle.DEFAULT_FILE);
+        addPhase("export bundle", start);
+    }
+
+    /**
+     * Compiles a word-presence classifier into the Weka-free NativeCategorizer.
+     *
+     * @param classifier A model from train() or loadState()
+     * @return The compiled model
+     * @throws Exception If the classifier cannot be compiled
+     */
+    public NativeCategorizer compileWordModel(NaiveBayesUpdateable classifier) throws Exception {
+        long start = System.nanoTime();
+        NativeCategorizer nativeModel = NativeCategorizer.compile(classifier.getHeader(), delimiters, classifier);
+        addPhase("compile", start);
+        return nativeModel;
+    }
+
+    /**
+     * Prints how long each phase took.
+     */
+    public void printTimings() {
+        System.out.println("\nPhase timings:");
+        long total = 0;
+        for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+            System.out.printf("  %-32s %8d ms%n", phase.getKey(), phase.getValue());
+            total += phase.getValue();
+        }
+        System.out.printf("  %-32s %8d ms%n", "total", total);
+    }
+
+    /**
+     * @return Categories in order of first appearance, as Weka's CSVLoader assigns them
+     */
+    private static List<String> categoriesOf(List<LabeledRow> rows) throws Exception {
+        if (rows.isEmpty()) {
+            throw new Exception("No labeled rows to train on.");
+        }
+        List<String> categories = new ArrayList<>();
+        Map<String, Integer> categoryIndex = new HashMap<>();
+        for (LabeledRow row : rows) {
+            if (categoryIndex.putIfAbsent(row.category(), categories.size()) == null) {
+                categories.add(row.category());
+            }
+        }
+        return categories;
+    }
+
+    private static Map<String, Integer> indexOf(List<String> categories) {
+        Map<String, Integer> index = new HashMap<>(categories.size() * 2);
+        for (int c = 0; c < categories.size(); c++) {
+            index.put(categories.get(c), c);
+        }
+        return index;
+    }
+
+    /**
+     * Keeps every word that is among the WORDS_TO_KEEP most frequent of some class,
+     * sorted alphabetically like StringToWordVector's attributes. Like the filter's
+     * dictionary, words are ranked by how often they occur in the class, not by how
+     * many rows contain them.
+     */
+    private static String[] selectVocabulary(Map<String, int[]> counts, int numClasses) {
+        int[] thresholds = new int[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            int[] classCounts = new int[counts.size()];
+            int n = 0;
+            for (int[] wordCounts : counts.values()) {
+                if (wordCounts[c] > 0) {
+                    classCounts[n++] = wordCounts[c];
+                }
+            }
+            Arrays.sort(classCounts, 0, n);
+            thresholds[c] = n > WORDS_TO_KEEP ? classCounts[n - WORDS_TO_KEEP] : 1;
+        }
+
+        TreeSet<String> vocabulary = new TreeSet<>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            for (int c = 0; c < numClasses; c++) {
+                if (entry.getValue()[c] >= thresholds[c]) {
+                    vocabulary.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return vocabulary.toArray(new String[0]);
+    }
+
+    /**
+     * @return The class attribute followed by one numeric attribute per word
+     */
+    private static Instances wordFormat(String[] vocabulary, List<String> categories) {
+        ArrayList<Attribute> attributes = new ArrayList<>(vocabulary.length + 1);
+        attributes.add(new Attribute(CLASS_ATTRIBUTE, categories));
+        for (String word : vocabulary) {
+            attributes.add(new Attribute(word));
+        }
+        Instances format = new Instances("training-data-words", attributes, 0);
+        format.setClassIndex(0);
+        return format;
+    }
+
+    private static Map<String, Integer> tokenIndex(Instances format) {
+        Map<String, Integer> index = new HashMap<>(format.numAttributes() * 2);
+        for (int a = 0; a < format.numAttributes(); a++) {
+            if (a != format.classIndex()) {
+                index.put(format.attribute(a).name(), a);
+            }
+        }
+        return index;
+    }
+
+    private Instance vectorize(String description, int categoryIndex, Map<String, Integer> tokenIndex, Instances format) {
+        TreeSet<Integer> present = new TreeSet<>();
+        present.add(format.classIndex());
+        for (String token : distinctTokens(description)) {
+            Integer index = tokenIndex.get(token);
+            if (index != null) {
+                present.add(index);
+            }
+        }
+
+        int[] indices = new int[present.size()];
+        double[] values = new double[present.size()];
+        int i = 0;
+        for (int index : present) {
+            indices[i] = index;
+            values[i] = index == format.classIndex() ? categoryIndex : 1.0;
+            i++;
+        }
+        Instance instance = new SparseInstance(1.0, values, indices, format.numAttributes());
+        instance.setDataset(format);
+        return instance;
+    }
+
+    private List<String> tokens(String description) {
+        List<String> tokens = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(description, delimiters);
+        while (tokenizer.hasMoreTokens()) {
+            tokens.add(tokenizer.nextToken());
+        }
+        return tokens;
+    }
+
+    private List<String> distinctTokens(String description) {
+        List<String> tokens = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(description, delimiters);
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken();
+            if (!tokens.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A task over the index range [from, to) of the rows.
+     */
+    private interface RangeTask<T> {
+        T run(int from, int to) throws Exception;
+    }
+
+    /**
+     * Splits [0, size) into one contiguous range per thread and returns the results in
+     * range order, so merging them is deterministic.
+     */
+    private <T> List<T> inParallel(int size, RangeTask<T> task) throws Exception {
+        int parts = Math.min(threads, Math.max(1, size));
+        IntFunction<Integer> boundary = p -> (int) ((long) size * p / parts);
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<T>> futures = new ArrayList<>(parts);
+            for (int p = 0; p < parts; p++) {
+                int from = boundary.apply(p);
+                int to = boundary.apply(p + 1);
+                futures.add(executor.submit(() -> task.run(from, to)));
+            }
+            List<T> results = new ArrayList<>(parts);
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void addPhase(String phase, long startNanos) {
+        phaseMillis.merge(phase, (System.nanoTime() - startNanos) / 1_000_000, Long::sum);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,301 @@
+package com.afsar.xpence;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelIngestor processes one large statement file on several cores.
+ *
+ * The file is memory-mapped and cut into slices. A first parallel pass counts quotes
+ * and line breaks in every slice; a prefix over those counts tells each slice whether
+ * it starts inside a quoted field, which gives record-aligned chunk boundaries and the
+ * exact row number each chunk starts at. A second parallel pass parses and categorizes
+ * every chunk into its own StatementTotals, and the per-chunk totals are merged in file
+ * order. Rows, warnings, totals and any stored transactions therefore match the
+ * sequential StatementProcessor, with or without a prediction cache.
+ *
+ * A quote in the middle of an unquoted field (not RFC 4180) breaks the quote parity
+ * the boundaries are based on, but only from the chunk containing it onwards. The
+ * merge stops at the first such chunk, keeps every chunk before it, cancels the rest
+ * and reads the file sequentially from that chunk's start, which is still a record
+ * boundary.
+ *
+ * Each chunk counts its rows in its own PipelineMetrics scope, which is added to the
+ * processor's metrics when the chunk is merged, so rows of discarded chunks are never
+ * counted. Progress therefore advances chunk by chunk.
+ */
+public class ParallelIngestor {
+
+    private static final long MIN_SLICE_SIZE = 1024 * 1024;
+    private static final long MAX_SLICE_SIZE = 1L << 30;
+    private static final int SLICES_PER_THREAD = 4;
+
+    private final StatementProcessor processor;
+    private final int threads;
+
+    /**
+     * @param processor The row processor shared by all workers
+     * @param threads Number of worker threads
+     */
+    public ParallelIngestor(StatementProcessor processor, int threads) {
+        this.processor = processor;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Quote and line-break counts for one slice, kept for both possible quote states
+     * at the start of the slice.
+     */
+    private static class SliceScan {
+        long quotes;
+        // Indexed by local quote parity at the line break
+        final long[] lineBreaks = new long[2];
+        final long[] firstRecordEnd = { -1, -1 };
+    }
+
+    /**
+     * A record-aligned region of the file and the number of data rows before it.
+     */
+    private record Chunk(long start, long end, long rowsBefore) {
+    }
+
+    /**
+     * Results of processing one chunk.
+     */
+    private static class ChunkResult {
+        final StatementTotals totals;
+        final TransactionStore.Builder store;   // null unless rows are being kept
+        final PipelineMetrics metrics;          // row counts, added when the chunk is merged
+        final List<String> warnings = new ArrayList<>();
+        long strayQuotes;
+
+        ChunkResult(StatementTotals totals, TransactionStore.Builder store, PipelineMetrics metrics) {
+            this.totals = totals;
+            this.store = store;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Processes a statement file in parallel.
+     *
+     * @param filePath Path to the CSV statement
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath) throws IOException {
+        return processFile(filePath, null);
+    }
+
+    /**
+     * Processes a statement file in parallel, adding every processed row to a store
+     * builder in file order.
+     *
+     * @param filePath Path to the CSV statement
+     * @param store Receives the processed rows, or null to keep none
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath, TransactionStore.Builder store) throws IOException {
+        if (!StatementFormat.of(Path.of(filePath)).isPlainCsv()) {
+            return processor.processFile(filePath, store); // Compressed data cannot be split by offset
+        }
+        if (processor.getDuplicateDetector() != null) {
+            return processor.processFile(filePath, store); // Duplicates must be checked in file order
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // Read the header row to find column indices
+            StatementProcessor.Columns columns;
+            long dataStart;
+            try (CsvReader headerReader = new CsvReader(map(channel, 0, Math.min(size, MAX_SLICE_SIZE)))) {
+                if (!headerReader.nextRecord()) {
+                    return processor.newTotals();
+                }
+                columns = StatementProcessor.detectColumns(headerReader.fields());
+                if (columns == null) {
+                    return null;
+                }
+                dataStart = headerReader.recordEndOffset();
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Chunk> chunks = splitIntoChunks(channel, dataStart, size, executor);
+                System.out.println("Processing " + chunks.size() + " chunks on " + threads + " threads...");
+
+                List<Future<ChunkResult>> futures = new ArrayList<>();
+                for (Chunk chunk : chunks) {
+                    futures.add(executor.submit(() -> processChunk(channel, chunk, columns, store != null)));
+                }
+
+                // Merge per-chunk results in file order
+                StatementTotals totals = processor.newTotals();
+                for (int i = 0; i < futures.size(); i++) {
+                    ChunkResult result = await(futures.get(i));
+                    if (result.strayQuotes > 0 && i < chunks.size() - 1) {
+                        // Boundaries after this chunk may lie inside a quoted field
+                        for (int later = i + 1; later < futures.size(); later++) {
+                            futures.get(later).cancel(true);
+                        }
+                        System.out.println("Statement contains non-standard quoting; processing the rest sequentially.");
+                        finishSequentially(channel, chunks.get(i).start(), columns, totals, store);
+                        return totals;
+                    }
+                    result.warnings.forEach(System.err::println);
+                    totals.merge(result.totals);
+                    processor.getMetrics().addCounts(result.metrics);
+                    if (store != null) {
+                        store.append(result.store);
+                    }
+                }
+                return totals;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Splits the data region of the file into record-aligned chunks.
+     */
+    private List<Chunk> splitIntoChunks(FileChannel channel, long dataStart, long size,
+                                        ExecutorService executor) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long dataLength = size - dataStart;
+        if (dataLength <= 0) {
+            return chunks;
+        }
+
+        long sliceSize = Math.max(MIN_SLICE_SIZE, (dataLength + threads * SLICES_PER_THREAD - 1) / (threads * SLICES_PER_THREAD));
+        sliceSize = Math.min(sliceSize, MAX_SLICE_SIZE);
+
+        // Pass 1: count quotes and line breaks in every slice in parallel
+        List<Future<SliceScan>> futures = new ArrayList<>();
+        for (long start = dataStart; start < size; start += sliceSize) {
+            long sliceStart = start;
+            long sliceEnd = Math.min(size, start + sliceSize);
+            futures.add(executor.submit(() -> scanSlice(channel, sliceStart, sliceEnd, size)));
+        }
+
+        // Walk the slices in order, tracking whether each one starts inside quotes
+        int parity = 0;
+        long rowsBefore = 0;
+        long chunkStart = dataStart;
+        long chunkRowsBefore = 0;
+        boolean first = true;
+        for (Future<SliceScan> future : futures) {
+            SliceScan scan = await(future);
+            if (!first && scan.firstRecordEnd[parity] >= 0) {
+                // The first record that ends in this slice closes the previous chunk
+                long boundary = scan.firstRecordEnd[parity];
+                chunks.add(new Chunk(chunkStart, boundary, chunkRowsBefore));
+                chunkStart = boundary;
+                chunkRowsBefore = rowsBefore + 1;
+            }
+            first = false;
+            rowsBefore += scan.lineBreaks[parity];
+            parity ^= (int) (scan.quotes & 1);
+        }
+        chunks.add(new Chunk(chunkStart, size, chunkRowsBefore));
+        return chunks;
+    }
+
+    /**
+     * Counts quotes and record-ending line breaks in one slice. A CR counts as a line
+     * break unless it is followed by LF, matching how CsvReader ends records.
+     */
+    private static SliceScan scanSlice(FileChannel channel, long start, long end, long size) throws IOException {
+        SliceScan scan = new SliceScan();
+
+        // Map one extra byte so a CR at the end of the slice can see the next byte
+        long mapEnd = Math.min(size, end + 1);
+        MappedByteBuffer buffer = map(channel, start, mapEnd - start);
+        int limit = (int) (end - start);
+        int parity = 0;
+        long quotes = 0;
+
+        for (int i = 0; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                quotes++;
+                parity ^= 1;
+            } else if (b == '\n' || (b == '\r' && (i + 1 >= buffer.limit() || buffer.get(i + 1) != '\n'))) {
+                if (scan.lineBreaks[parity]++ == 0) {
+                    scan.firstRecordEnd[parity] = start + i + 1;
+                }
+            }
+        }
+
+        scan.quotes = quotes;
+        return scan;
+    }
+
+    /**
+     * Parses and categorizes one chunk into its own totals.
+     */
+    private ChunkResult processChunk(FileChannel channel, Chunk chunk, StatementProcessor.Columns columns,
+                                     boolean keepRows) throws IOException {
+        TransactionStore.Builder store = keepRows ? new TransactionStore.Builder(processor.getCategoryNames()) : null;
+        ChunkResult result = new ChunkResult(processor.newTotals(), store, processor.getMetrics().newCounterScope());
+        try (CsvReader reader = new CsvReader(map(channel, chunk.start(), chunk.end() - chunk.start()))) {
+            while (processor.readRecord(reader)) {
+                long rowNumber = chunk.rowsBefore() + result.totals.getRowCount() + 1;
+                String warning = processor.processRecord(reader, columns, result.totals, rowNumber, store, result.metrics);
+                if (warning != null) {
+                    result.warnings.add(warning);
+                }
+            }
+            result.strayQuotes = reader.strayQuotes();
+        }
+        return result;
+    }
+
+    /**
+     * Processes the file from a record boundary to the end on the calling thread.
+     */
+    private void finishSequentially(FileChannel channel, long offset, StatementProcessor.Columns columns,
+                                    StatementTotals totals, TransactionStore.Builder store) throws IOException {
+        try (CsvReader reader = new CsvReader(Channels.newInputStream(channel.position(offset)))) {
+            while (processor.readRecord(reader)) {
+                String warning = processor.processRecord(reader, columns, totals, totals.getRowCount() + 1, store);
+                if (warning != null) {
+                    System.err.println(warning);
+                }
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Chunk at offset " + position + " is too large to map (" + length + " bytes)");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing statement", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Error processing statement chunk: " + cause.getMessage(), cause);
+        }
+    }
+}
\ No newline at end of file
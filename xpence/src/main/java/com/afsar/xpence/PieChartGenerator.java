@@ -10,10 +10,13 @@ import org.jfree.data.general.DefaultPieDataset;
 import javax.swing.*;
 import java.awt.*;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * PieChartGenerator creates and displays pie charts for expense data visualization.
  * Uses JFreeChart library to generate interactive charts with percentage labels.
+ * createPieChart() only builds the chart, so it can also be drawn off-screen (see
+ * ChartRenderer).
  */
 public class PieChartGenerator {
     
@@ -24,11 +27,36 @@ public class PieChartGenerator {
      * @param title The title to display on the chart
      */
     public void generatePieChart(HashMap<String, Double> expenseData, String title) {
+        JFreeChart chart = createPieChart(expenseData, title);
+        
+        // Step 8: Create a ChartFrame to display the chart
+        ChartFrame frame = new ChartFrame(title, chart);
+        
+        // Step 9: Set the frame's default close operation to dispose on close
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        
+        // Step 10: Pack the frame and set it to be visible
+        frame.pack();
+        frame.setVisible(true);
+        
+        // Print confirmation message
+        System.out.println("Pie chart '" + title + "' displayed successfully.");
+    }
+    
+    /**
+     * Builds the styled pie chart without displaying it. Slices follow the map's
+     * iteration order.
+     * 
+     * @param expenseData Category names as keys and expense amounts as values
+     * @param title The title to display on the chart
+     * @return The chart
+     */
+    public JFreeChart createPieChart(Map<String, Double> expenseData, String title) {
         // Step 1: Create a DefaultPieDataset
         DefaultPieDataset<String> dataset = new DefaultPieDataset<>();
         
         // Step 2: Populate the dataset from the input HashMap
-        for (HashMap.Entry<String, Double> entry : expenseData.entrySet()) {
+        for (Map.Entry<String, Double> entry : expenseData.entrySet()) {
             String category = entry.getKey();
             Double amount = entry.getValue();
             
@@ -68,18 +96,6 @@ public class PieChartGenerator {
         // Customize chart title
         chart.getTitle().setFont(new Font("SansSerif", Font.BOLD, 16));
         chart.getTitle().setPaint(Color.DARK_GRAY);
-        
-        // Step 8: Create a ChartFrame to display the chart
-        ChartFrame frame = new ChartFrame(title, chart);
-        
-        // Step 9: Set the frame's default close operation to dispose on close
-        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-        
-        // Step 10: Pack the frame and set it to be visible
-        frame.pack();
-        frame.setVisible(true);
-        
-        // Print confirmation message
-        System.out.println("Pie chart '" + title + "' displayed successfully.");
+        return chart;
     }
 }
\ No newline at end of file
@@ -0,0 +1,427 @@
+package com.afsar.xpence;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PipelineMetrics collects the processing telemetry of a StatementProcessor: rows read
+ * and processed, rows skipped per reason and latency histograms for the read, parse,
+ * categorize and aggregate stages of every row.
+ *
+ * Recording is cheap enough for the per-row hot path: counters are LongAdders and each
+ * stage has one LatencyHistogram per stripe, picked by thread id, so worker threads
+ * rarely touch the same cache lines. Readers combine the stripes on demand. Reading
+ * the clock around every stage of every row would cost more than aggregating the row
+ * itself, so stage latencies are sampled: sampleRow() picks one row in SAMPLE_INTERVAL
+ * at random, and the histograms describe those rows. Counters are exact.
+ *
+ * The metrics can be exported as a Prometheus text file (writePrometheus()) and as JFR
+ * events: a periodic xpence.PipelineMetrics snapshot once registerJfrEvents() has been
+ * called, and an xpence.StatementProcessed event per file (see beginStatement()).
+ * Both only cost anything while a flight recording is running.
+ */
+public class PipelineMetrics {
+
+    /**
+     * The timed stages of a row.
+     */
+    public enum Stage {
+        READ,       // CsvReader.nextRecord(): I/O and splitting into fields
+        PARSE,      // extracting the description and parsing the amount
+        CATEGORIZE, // predicting the category
+        AGGREGATE   // adding the row to the totals
+    }
+
+    /**
+     * Why a row was not added to the totals.
+     */
+    public enum SkipReason {
+        BLANK_LINE,
+        INSUFFICIENT_COLUMNS,
+        EMPTY_DESCRIPTION,
+        INVALID_AMOUNT,
+        DUPLICATE,
+        ERROR
+    }
+
+    public static final int SAMPLE_INTERVAL = 16;
+
+    // Prometheus histogram bucket bounds in nanoseconds
+    private static final long[] PROMETHEUS_BUCKETS = {
+        250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000,
+        1_000_000, 10_000_000, 100_000_000, 1_000_000_000
+    };
+
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsProcessed = new LongAdder();
+    private final LongAdder[] skipped = new LongAdder[SkipReason.values().length];
+    private final LatencyHistogram[][] stages; // [stage][stripe]
+    private final int stripeMask;
+    private final long startNanos = System.nanoTime();
+
+    private Runnable jfrHook;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        stripeMask = stripes - 1;
+        stages = new LatencyHistogram[Stage.values().length][stripes];
+        for (LatencyHistogram[] stripesOfStage : stages) {
+            for (int s = 0; s < stripes; s++) {
+                stripesOfStage[s] = new LatencyHistogram();
+            }
+        }
+    }
+
+    private PipelineMetrics(PipelineMetrics parent) {
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+        stripeMask = parent.stripeMask;
+        stages = parent.stages;
+    }
+
+    /**
+     * Creates metrics with row counters of their own that record stage latencies into
+     * these. Rows counted there only show up here once addCounts() folds them in, so a
+     * worker whose rows may still be discarded (see ParallelIngestor) never inflates
+     * the counters.
+     *
+     * @return The new metrics
+     */
+    public PipelineMetrics newCounterScope() {
+        return new PipelineMetrics(this);
+    }
+
+    /**
+     * Adds the row counters of other metrics, typically from newCounterScope(), to these.
+     *
+     * @param other Metrics whose counters to add
+     */
+    public void addCounts(PipelineMetrics other) {
+        rowsRead.add(other.getRowsRead());
+        rowsProcessed.add(other.getRowsProcessed());
+        for (SkipReason reason : SkipReason.values()) {
+            skipped[reason.ordinal()].add(other.getSkipped(reason));
+        }
+    }
+
+    /**
+     * @return true if the stages of the current row should be timed
+     */
+    public boolean sampleRow() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE_INTERVAL - 1)) == 0;
+    }
+
+    /**
+     * Records the duration of one stage of a row.
+     *
+     * @param stage The stage
+     * @param nanos Its duration in nanoseconds
+     */
+    public void recordStage(Stage stage, long nanos) {
+        stages[stage.ordinal()][(int) Thread.currentThread().threadId() & stripeMask].record(nanos);
+    }
+
+    /**
+     * Counts a row read from a statement (blank lines included).
+     */
+    public void countRow() {
+        rowsRead.increment();
+    }
+
+    /**
+     * Counts rows read in bulk, e.g. a batch handed over by StagedPipeline.
+     *
+     * @param rows Rows read (blank lines included)
+     */
+    public void countRows(long rows) {
+        rowsRead.add(rows);
+    }
+
+    /**
+     * Counts a row that was added to the totals.
+     */
+    public void countProcessed() {
+        rowsProcessed.increment();
+    }
+
+    /**
+     * Counts a skipped row.
+     *
+     * @param reason Why it was skipped
+     */
+    public void countSkipped(SkipReason reason) {
+        skipped[reason.ordinal()].increment();
+    }
+
+    /**
+     * Counts skipped rows in bulk.
+     *
+     * @param reason Why they were skipped
+     * @param rows Number of rows
+     */
+    public void countSkipped(SkipReason reason, long rows) {
+        skipped[reason.ordinal()].add(rows);
+    }
+
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    public long getRowsProcessed() {
+        return rowsProcessed.sum();
+    }
+
+    public long getSkipped(SkipReason reason) {
+        return skipped[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return Rows skipped for any reason
+     */
+    public long getSkipped() {
+        long total = 0;
+        for (LongAdder adder : skipped) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param stage The stage
+     * @return A snapshot of the stage's latencies, combined over all threads
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        LatencyHistogram combined = new LatencyHistogram();
+        for (LatencyHistogram stripe : stages[stage.ordinal()]) {
+            combined.add(stripe);
+        }
+        return combined;
+    }
+
+    /**
+     * Prints the counters and per-stage latency percentiles.
+     */
+    public void printSummary() {
+        System.out.println("\nPipeline metrics:");
+        System.out.printf("  Rows read            : %,d%n", getRowsRead());
+        System.out.printf("  Rows processed       : %,d%n", getRowsProcessed());
+        for (SkipReason reason : SkipReason.values()) {
+            long count = getSkipped(reason);
+            if (count > 0) {
+                System.out.printf("  Skipped, %-20s: %,d%n", label(reason).replace('_', ' '), count);
+            }
+        }
+        System.out.printf("  %-11s %10s %10s %10s %10s%n", "Stage", "mean ns", "p50 ns", "p99 ns", "max ns");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            long count = histogram.getCount();
+            System.out.printf("  %-11s %10d %10d %10d %10d%n", label(stage), count == 0 ? 0 : histogram.getSum() / count,
+                              histogram.valueAtPercentile(50), histogram.valueAtPercentile(99), histogram.getMax());
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format, e.g. for the node
+     * exporter's textfile collector. The file is replaced atomically.
+     *
+     * @param file Destination file
+     * @throws IOException If the file cannot be written
+     */
+    public void writePrometheus(Path file) throws IOException {
+        StringBuilder text = new StringBuilder(4096);
+        counter(text, "xpence_rows_read_total", "Rows read from statements, including blank lines.");
+        text.append("xpence_rows_read_total ").append(getRowsRead()).append('\n');
+        counter(text, "xpence_rows_processed_total", "Rows categorized and added to the totals.");
+        text.append("xpence_rows_processed_total ").append(getRowsProcessed()).append('\n');
+        counter(text, "xpence_rows_skipped_total", "Rows skipped, by reason.");
+        for (SkipReason reason : SkipReason.values()) {
+            text.append("xpence_rows_skipped_total{reason=\"").append(label(reason)).append("\"} ")
+                .append(getSkipped(reason)).append('\n');
+        }
+
+        text.append("# HELP xpence_stage_duration_seconds Time spent per row in each processing stage, sampled.\n");
+        text.append("# TYPE xpence_stage_duration_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            String name = label(stage);
+            for (long bound : PROMETHEUS_BUCKETS) {
+                text.append("xpence_stage_duration_seconds_bucket{stage=\"").append(name).append("\",le=\"")
+                    .append(seconds(bound)).append("\"} ").append(histogram.countAtOrBelow(bound)).append('\n');
+            }
+            text.append("xpence_stage_duration_seconds_bucket{stage=\"").append(name).append("\",le=\"+Inf\"} ")
+                .append(histogram.getCount()).append('\n');
+            text.append("xpence_stage_duration_seconds_sum{stage=\"").append(name).append("\"} ")
+                .append(seconds(histogram.getSum())).append('\n');
+            text.append("xpence_stage_duration_seconds_count{stage=\"").append(name).append("\"} ")
+                .append(histogram.getCount()).append('\n');
+        }
+
+        text.append("# HELP xpence_uptime_seconds Seconds since the metrics were created.\n");
+        text.append("# TYPE xpence_uptime_seconds gauge\n");
+        text.append("xpence_uptime_seconds ").append(seconds(System.nanoTime() - startNanos)).append('\n');
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Emits a periodic xpence.PipelineMetrics JFR event with these metrics while a
+     * recording is running. Call unregisterJfrEvents() when done.
+     *
+     * Registering a periodic event starts up the whole flight recorder (several hundred
+     * milliseconds), so nothing is registered unless the JVM was launched with a
+     * recording, e.g. -XX:StartFlightRecording.
+     */
+    public synchronized void registerJfrEvents() {
+        if (jfrHook == null && FlightRecorder.isInitialized()) {
+            jfrHook = () -> {
+                MetricsSnapshotEvent event = new MetricsSnapshotEvent();
+                event.rowsRead = getRowsRead();
+                event.rowsProcessed = getRowsProcessed();
+                event.rowsSkipped = getSkipped();
+                event.readP99 = getHistogram(Stage.READ).valueAtPercentile(99);
+                event.parseP99 = getHistogram(Stage.PARSE).valueAtPercentile(99);
+                event.categorizeP99 = getHistogram(Stage.CATEGORIZE).valueAtPercentile(99);
+                event.aggregateP99 = getHistogram(Stage.AGGREGATE).valueAtPercentile(99);
+                event.commit();
+            };
+            FlightRecorder.addPeriodicEvent(MetricsSnapshotEvent.class, jfrHook);
+        }
+    }
+
+    public synchronized void unregisterJfrEvents() {
+        if (jfrHook != null) {
+            FlightRecorder.removePeriodicEvent(jfrHook);
+            jfrHook = null;
+        }
+    }
+
+    /**
+     * Starts timing one statement for the xpence.StatementProcessed JFR event.
+     *
+     * @param file The statement file
+     * @return The event; pass it to endStatement()
+     */
+    public static StatementProcessedEvent beginStatement(String file) {
+        StatementProcessedEvent event = new StatementProcessedEvent();
+        if (event.isEnabled()) {
+            event.file = file;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Commits a StatementProcessed event with the statement's outcome.
+     *
+     * @param event Event from beginStatement()
+     * @param totals The statement totals, or null if processing failed
+     */
+    public static void endStatement(StatementProcessedEvent event, StatementTotals totals) {
+        if (event.shouldCommit()) {
+            if (totals != null) {
+                event.rows = totals.getRowCount();
+                event.processedRows = totals.getProcessedRows();
+                event.spendingPaise = totals.getTotalSpendingPaise();
+            }
+            event.failed = totals == null;
+            event.commit();
+        }
+    }
+
+    private static void counter(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9).replaceAll("0+$", "").replaceAll("\\.$", ".0");
+    }
+
+    private static String label(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Periodic snapshot of the pipeline counters and stage latencies.
+     */
+    @Name("xpence.PipelineMetrics")
+    @Label("Pipeline Metrics")
+    @Category("Xpence")
+    @Period("1 s")
+    public static class MetricsSnapshotEvent extends Event {
+        @Label("Rows Read")
+        long rowsRead;
+
+        @Label("Rows Processed")
+        long rowsProcessed;
+
+        @Label("Rows Skipped")
+        long rowsSkipped;
+
+        @Label("Read p99")
+        @Timespan(Timespan.NANOSECONDS)
+        long readP99;
+
+        @Label("Parse p99")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseP99;
+
+        @Label("Categorize p99")
+        @Timespan(Timespan.NANOSECONDS)
+        long categorizeP99;
+
+        @Label("Aggregate p99")
+        @Timespan(Timespan.NANOSECONDS)
+        long aggregateP99;
+    }
+
+    /**
+     * One statement file processed, with its duration.
+     */
+    @Name("xpence.StatementProcessed")
+    @Label("Statement Processed")
+    @Category("Xpence")
+    @Description("A bank statement was read, categorized and aggregated")
+    public static class StatementProcessedEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Processed Rows")
+        long processedRows;
+
+        @Label("Spending (paise)")
+        long spendingPaise;
+
+        @Label("Failed")
+        boolean failed;
+    }
+}
\ No newline at end of file
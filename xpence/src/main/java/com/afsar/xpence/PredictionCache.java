@@ -0,0 +1,196 @@
+package com.afsar.xpence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PredictionCache is a bounded, thread-safe memo of description -> category index.
+ *
+ * Bank statements repeat the same merchants over and over, differing only in order
+ * numbers and reference IDs, so keys are normalized by dropping digit runs and
+ * collapsing whitespace. Entries are spread over independently locked segments, each
+ * evicting its least recently used entry once full, so lookups from many threads
+ * rarely contend. Hit, miss and eviction counts are kept for reporting.
+ *
+ * A cached category is the prediction for the normalized key itself, not for whichever
+ * variant of the description happened to be classified first, so it is a pure function
+ * of the key: row order, eviction and the number of classifying threads never change
+ * the result. With a cache enabled, descriptions are therefore categorized without
+ * their digits, which can differ from an uncached run for the few descriptions whose
+ * digits the model relies on.
+ */
+public class PredictionCache {
+
+    private static final int MAX_SEGMENTS = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * One LRU segment of the cache, guarded by its own monitor.
+     */
+    private static final class Segment extends LinkedHashMap<String, Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true); // access order = LRU
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a cache holding at most maxEntries predictions.
+     *
+     * @param maxEntries Maximum number of cached descriptions (must be positive)
+     */
+    public PredictionCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+
+        // Keep at least 16 entries per segment so small caches still behave like LRU
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 16 <= maxEntries) {
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+
+        int perSegment = (maxEntries + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+    }
+
+    /**
+     * Normalizes a description into a cache key: digit runs (order numbers, reference
+     * IDs) are removed and runs of whitespace are collapsed into a single space.
+     *
+     * @param description The raw transaction description
+     * @return The cache key
+     */
+    public static String normalize(String description) {
+        StringBuilder key = new StringBuilder(description.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (Character.isDigit(c)) {
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = key.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                key.append(' ');
+                pendingSpace = false;
+            }
+            key.append(c);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Looks up a cached category.
+     *
+     * @param key A key produced by normalize()
+     * @return The cached class index, or -1 on a miss
+     */
+    public int get(String key) {
+        Segment segment = segmentFor(key);
+        Integer categoryIndex;
+        synchronized (segment) {
+            categoryIndex = segment.get(key);
+        }
+        if (categoryIndex != null) {
+            hits.increment();
+            return categoryIndex;
+        }
+        misses.increment();
+        return -1;
+    }
+
+    /**
+     * Stores a category, evicting the least recently used entry of the segment if full.
+     *
+     * @param key A key produced by normalize()
+     * @param categoryIndex The predicted class index
+     */
+    public void put(String key, int categoryIndex) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, categoryIndex); // class indices are small, so boxing reuses cached Integers
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return Current number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Fraction of lookups that were hits, or 0 if there were none
+     */
+    public double getHitRate() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, evictions=%d, size=%d/%d, hit rate=%.1f%%",
+                getHitCount(), getMissCount(), getEvictionCount(), size(), maxEntries, getHitRate() * 100);
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // spread high bits into the segment index
+        return segments[h & segmentMask];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.afsar.xpence;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProgressReporter prints how many rows have been processed, and how fast, from a
+ * background thread at a fixed interval. The processing threads only bump the
+ * PipelineMetrics counters and never wait on the console; nothing is printed while
+ * the count is unchanged.
+ */
+public class ProgressReporter implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final PipelineMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private long lastRows;
+    private long lastNanos;
+
+    /**
+     * Starts reporting.
+     *
+     * @param metrics Metrics of the processor to watch
+     * @param intervalMillis Time between reports
+     */
+    public ProgressReporter(PipelineMetrics metrics, long intervalMillis) {
+        this.metrics = metrics;
+        this.lastRows = metrics.getRowsProcessed();
+        this.lastNanos = System.nanoTime();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "xpence-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void report() {
+        long rows = metrics.getRowsProcessed();
+        long now = System.nanoTime();
+        if (rows == lastRows) {
+            return;
+        }
+        double rate = (rows - lastRows) * 1e9 / Math.max(1, now - lastNanos);
+        System.out.printf("Processed %,d transactions (%,.0f rows/s)...%n", rows, rate);
+        lastRows = rows;
+        lastNanos = now;
+    }
+
+    /**
+     * Stops reporting; a report in progress is allowed to finish.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,539 @@
+package com.afsar.xpence;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StagedPipeline processes a statement as a pipeline of stages connected by bounded
+ * queues, so reading, parsing and classification overlap instead of taking turns:
+ *
+ * <pre>
+ *   reader --batches--> parser pool --parsed--> categorizer pool --categorized--> aggregator
+ * </pre>
+ *
+ * The reader thread reads the file sequentially and cuts it into batches of raw bytes
+ * holding batchSize records each, tracking quote parity so no record is split. Parser
+ * threads tokenize a batch and extract descriptions, amounts and dates; categorizer
+ * threads predict the categories; the aggregator (the calling thread) applies the
+ * batches to the totals strictly in file order, holding back batches that arrive
+ * early. Totals, warnings and stored transactions therefore match the sequential
+ * StatementProcessor exactly, whatever the thread counts; a prediction cache does not
+ * change that, as its entries do not depend on the order rows are classified in.
+ *
+ * Rows travel in batches so the queues are touched once per batch rather than once per
+ * row. Every queue holds at most queueCapacity batches and a full queue blocks the
+ * stage feeding it. The aggregator has to hold back batches that overtake a slow one,
+ * so the reader also takes a permit for every batch it cuts, which the aggregator
+ * returns once the batch is applied: no more than three queues' worth plus one batch
+ * per worker thread is ever in flight, and memory stays bounded however large the
+ * file or however slow a single batch.
+ *
+ * Input that is not strictly RFC 4180 (a quote in the middle of an unquoted field)
+ * breaks quote parity. The first batch with such a quote was still cut correctly, so
+ * the aggregator stops the pipeline at the first batch containing one (it still starts
+ * on a record boundary) and reads the rest of the file sequentially from there.
+ */
+public class StagedPipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private static final int READ_BLOCK_SIZE = 256 * 1024;
+    private static final long POLL_MILLIS = 100;
+
+    private final StatementProcessor processor;
+    private final int parserThreads;
+    private final int categorizerThreads;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    /**
+     * One batch of records as it moves through the stages.
+     */
+    private static final class Batch {
+        static final Batch END = new Batch(-1, 0, 0, null, 0);
+
+        final long sequence;
+        final long startOffset;     // of the first record, in the file
+        final long rowsBefore;      // data rows before the batch
+        final byte[] bytes;
+        final int rows;
+
+        // Filled by a parser: the rows to aggregate, and warnings for skipped rows
+        int kept;
+        int[] keptRows;             // row index within the batch
+        String[] descriptions;
+        long[] paise;
+        int[] dates;
+        final long[] skipped = new long[PipelineMetrics.SkipReason.values().length];
+        final List<String> warnings = new ArrayList<>();
+        int[] warningRows = new int[4];
+        long strayQuotes;
+        long parseNanos;
+
+        // Filled by a categorizer; -1 where prediction failed
+        int[] categories;
+        String[] errors;
+        long categorizeNanos;
+
+        Batch(long sequence, long startOffset, long rowsBefore, byte[] bytes, int rows) {
+            this.sequence = sequence;
+            this.startOffset = startOffset;
+            this.rowsBefore = rowsBefore;
+            this.bytes = bytes;
+            this.rows = rows;
+        }
+
+        void skip(PipelineMetrics.SkipReason reason) {
+            skipped[reason.ordinal()]++;
+        }
+
+        void warn(int row, String warning) {
+            if (warnings.size() == warningRows.length) {
+                warningRows = Arrays.copyOf(warningRows, warningRows.length * 2);
+            }
+            warningRows[warnings.size()] = row;
+            warnings.add(warning);
+        }
+    }
+
+    /**
+     * @param processor The row processor, for its categorizer, metrics and rollup setting
+     * @param parserThreads Threads tokenizing and parsing batches
+     * @param categorizerThreads Threads predicting categories
+     * @param batchSize Records per batch
+     * @param queueCapacity Batches each queue holds before its producer blocks
+     */
+    public StagedPipeline(StatementProcessor processor, int parserThreads, int categorizerThreads,
+                          int batchSize, int queueCapacity) {
+        if (parserThreads <= 0 || categorizerThreads <= 0 || batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Thread counts, batch size and queue capacity must be positive");
+        }
+        this.processor = processor;
+        this.parserThreads = parserThreads;
+        this.categorizerThreads = categorizerThreads;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Creates a pipeline with default batching for the given number of cores: a
+     * half of them parse and all of them categorize.
+     *
+     * @param processor The row processor
+     * @param threads Number of cores to use
+     */
+    public StagedPipeline(StatementProcessor processor, int threads) {
+        this(processor, Math.max(1, threads / 2), Math.max(1, threads), DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Processes a statement file through the pipeline.
+     *
+     * @param filePath Path to the CSV statement
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath) throws IOException {
+        return processFile(filePath, null);
+    }
+
+    /**
+     * Processes a statement file through the pipeline, adding every processed row to a
+     * store builder in file order.
+     *
+     * @param filePath Path to the CSV statement
+     * @param store Receives the processed rows, or null to keep none
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath, TransactionStore.Builder store) throws IOException {
+        Path file = Path.of(filePath);
+        if (!StatementFormat.of(file).isPlainCsv()) {
+            return processor.processFile(filePath, store); // Batches are cut from the raw file bytes
+        }
+        StatementTotals totals = processor.newTotals();
+
+        // Read the header row to find column indices
+        StatementProcessor.Columns columns;
+        long dataStart;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             CsvReader headerReader = new CsvReader(Channels.newInputStream(channel))) {
+            if (!headerReader.nextRecord()) {
+                return totals;
+            }
+            columns = StatementProcessor.detectColumns(headerReader.fields());
+            if (columns == null) {
+                return null;
+            }
+            dataStart = headerReader.recordEndOffset();
+        }
+        processor.beginStatement(columns);
+        boolean needDates = store != null || processor.isRollupsEnabled() || processor.getDuplicateDetector() != null;
+
+        BlockingQueue<Batch> raw = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> categorized = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger parsersLeft = new AtomicInteger(parserThreads);
+        Semaphore inFlight = new Semaphore(queueCapacity * 3 + parserThreads + categorizerThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(1 + parserThreads + categorizerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "xpence-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Pipeline: 1 reader, " + parserThreads + " parser(s), " + categorizerThreads +
+                           " categorizer(s), " + batchSize + " rows per batch");
+        try {
+            executor.execute(stage(failure, () -> {
+                read(file, dataStart, raw, inFlight);
+                for (int i = 0; i < parserThreads; i++) {
+                    raw.put(Batch.END);
+                }
+            }));
+            for (int i = 0; i < parserThreads; i++) {
+                executor.execute(stage(failure, () -> {
+                    for (Batch batch = raw.take(); batch != Batch.END; batch = raw.take()) {
+                        parse(batch, columns, needDates);
+                        parsed.put(batch);
+                    }
+                    // The last parser to finish tells every categorizer
+                    if (parsersLeft.decrementAndGet() == 0) {
+                        for (int c = 0; c < categorizerThreads; c++) {
+                            parsed.put(Batch.END);
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < categorizerThreads; i++) {
+                executor.execute(stage(failure, () -> {
+                    for (Batch batch = parsed.take(); batch != Batch.END; batch = parsed.take()) {
+                        categorize(batch);
+                        categorized.put(batch);
+                    }
+                    categorized.put(Batch.END);
+                }));
+            }
+
+            // Aggregate on this thread, in file order
+            Map<Long, Batch> early = new HashMap<>();
+            long next = 0;
+            int categorizersLeft = categorizerThreads;
+            while (categorizersLeft > 0 || !early.isEmpty()) {
+                Batch batch = early.remove(next);
+                if (batch == null) {
+                    if (categorizersLeft == 0) {
+                        throw new IOException("Pipeline lost batch " + next);
+                    }
+                    Batch arrived = categorized.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    checkFailure(failure);
+                    if (arrived == Batch.END) {
+                        categorizersLeft--;
+                    } else if (arrived != null) {
+                        early.put(arrived.sequence, arrived);
+                    }
+                    continue;
+                }
+                if (batch.strayQuotes > 0) {
+                    // Batches after this one may be cut inside a quoted field
+                    executor.shutdownNow();
+                    System.out.println("Statement contains non-standard quoting; processing the rest sequentially.");
+                    finishSequentially(file, batch.startOffset, columns, totals, store);
+                    return totals;
+                }
+                aggregate(batch, totals, store);
+                inFlight.release();
+                next++;
+            }
+            checkFailure(failure);
+            return totals;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing statement", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A pipeline stage body that may block on its queues.
+     */
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * Wraps a stage so a failure is recorded for the aggregator instead of being lost,
+     * and an interrupt (the pipeline shutting down) ends the stage quietly.
+     */
+    private static Runnable stage(AtomicReference<Throwable> failure, StageBody body) {
+        return () -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        };
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+        Throwable cause = failure.get();
+        if (cause instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (cause != null) {
+            throw new IOException("Error in processing pipeline: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Reader stage: cuts the data region of the file into batches of batchSize records.
+     * A record ends at a line break outside quotes; CRLF and a lone CR both count as
+     * one break, as in CsvReader.
+     */
+    private void read(Path file, long dataStart, BlockingQueue<Batch> raw, Semaphore inFlight)
+            throws IOException, InterruptedException {
+        PipelineMetrics metrics = processor.getMetrics();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream in = Channels.newInputStream(channel.position(dataStart))) {
+            byte[] buffer = new byte[READ_BLOCK_SIZE];
+            int length = 0;          // bytes in the buffer
+            int batchStart = 0;      // first byte of the batch being collected
+            int scan = 0;            // next byte to examine
+            int records = 0;         // complete records since batchStart
+            int recordEnd = 0;       // just past the last complete record
+            boolean inQuotes = false;
+            long offset = dataStart; // file offset of buffer[0]
+            long sequence = 0;
+            long rowsBefore = 0;
+            long started = System.nanoTime();
+            boolean eof = false;
+
+            while (true) {
+                // Find record ends; a CR in the last byte waits for the next read
+                int limit = eof ? length : length - 1;
+                while (scan < limit && records < batchSize) {
+                    byte b = buffer[scan++];
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (!inQuotes && (b == '\n' || b == '\r')) {
+                        if (b == '\r' && scan < length && buffer[scan] == '\n') {
+                            scan++;
+                        }
+                        records++;
+                        recordEnd = scan;
+                    }
+                }
+
+                boolean last = eof && scan == length;
+                if (records == batchSize || (last && scan > batchStart)) {
+                    // A final record without a line break still counts
+                    int rows = records == batchSize || scan == recordEnd ? records : records + 1;
+                    Batch batch = new Batch(sequence++, offset + batchStart, rowsBefore,
+                                            Arrays.copyOfRange(buffer, batchStart, scan), rows);
+                    if (rows > 0) {
+                        metrics.recordStage(PipelineMetrics.Stage.READ, (System.nanoTime() - started) / rows);
+                    }
+                    inFlight.acquire(); // Returned by the aggregator
+                    raw.put(batch);
+                    started = System.nanoTime();
+                    rowsBefore += rows;
+                    batchStart = scan;
+                    recordEnd = scan;
+                    records = 0;
+                    continue;
+                }
+                if (last) {
+                    return;
+                }
+
+                // Need more input: keep the unfinished batch and refill
+                if (batchStart > 0) {
+                    System.arraycopy(buffer, batchStart, buffer, 0, length - batchStart);
+                    offset += batchStart;
+                    length -= batchStart;
+                    scan -= batchStart;
+                    recordEnd -= batchStart;
+                    batchStart = 0;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2); // Very long records
+                }
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parser stage: tokenizes a batch and applies the row checks of
+     * StatementProcessor.processRecord(), keeping the rows to classify.
+     */
+    private void parse(Batch batch, StatementProcessor.Columns columns, boolean needDates) throws IOException {
+        long start = System.nanoTime();
+        batch.keptRows = new int[batch.rows];
+        batch.descriptions = new String[batch.rows];
+        batch.paise = new long[batch.rows];
+        batch.dates = needDates ? new int[batch.rows] : null;
+
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(batch.bytes), 16 * 1024)) {
+            for (int row = 0; row < batch.rows && reader.nextRecord(); row++) {
+                long rowNumber = batch.rowsBefore + row + 1;
+                if (reader.isBlankRecord()) {
+                    batch.skip(PipelineMetrics.SkipReason.BLANK_LINE);
+                    continue; // Skip empty lines
+                }
+                try {
+                    if (reader.fieldCount() <= Math.max(columns.descriptionIndex(), columns.amountIndex())) {
+                        batch.skip(PipelineMetrics.SkipReason.INSUFFICIENT_COLUMNS);
+                        batch.warn(row, "Warning: Row " + rowNumber + " has insufficient columns, skipping.");
+                        continue;
+                    }
+                    if (reader.isBlank(columns.descriptionIndex())) {
+                        batch.skip(PipelineMetrics.SkipReason.EMPTY_DESCRIPTION);
+                        batch.warn(row, "Warning: Row " + rowNumber + " has empty description, skipping.");
+                        continue;
+                    }
+                    String description = reader.trimmedField(columns.descriptionIndex());
+                    long paise = reader.parseAmountPaise(columns.amountIndex());
+                    int kept = batch.kept;
+                    if (needDates) {
+                        batch.dates[kept] = columns.hasDate() && reader.fieldCount() > columns.dateIndex()
+                            ? reader.parseEpochDay(columns.dateIndex()) : CsvReader.NO_DATE;
+                    }
+                    batch.keptRows[kept] = row;
+                    batch.descriptions[kept] = description;
+                    batch.paise[kept] = paise;
+                    batch.kept++;
+                } catch (NumberFormatException e) {
+                    batch.skip(PipelineMetrics.SkipReason.INVALID_AMOUNT);
+                    batch.warn(row, "Warning: Row " + rowNumber + " has invalid amount format, skipping.");
+                } catch (Exception e) {
+                    batch.skip(PipelineMetrics.SkipReason.ERROR);
+                    batch.warn(row, "Warning: Error processing row " + rowNumber + ": " + e.getMessage());
+                }
+            }
+            batch.strayQuotes = reader.strayQuotes();
+        }
+        batch.parseNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Categorizer stage: predicts the category of every kept row.
+     */
+    private void categorize(Batch batch) {
+        long start = System.nanoTime();
+        batch.categories = new int[batch.kept];
+        for (int i = 0; i < batch.kept; i++) {
+            try {
+                batch.categories[i] = processor.predictCategoryIndex(batch.descriptions[i]);
+            } catch (Exception e) {
+                if (batch.errors == null) {
+                    batch.errors = new String[batch.kept];
+                }
+                batch.categories[i] = -1;
+                batch.errors[i] = e.getMessage();
+            }
+        }
+        batch.categorizeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Aggregator: adds a batch to the totals, printing its warnings in row order.
+     */
+    private void aggregate(Batch batch, StatementTotals totals, TransactionStore.Builder store) {
+        long start = System.nanoTime();
+        PipelineMetrics metrics = processor.getMetrics();
+        StatementRollups rollups = totals.getRollups();
+        DuplicateDetector duplicates = batch.dates != null ? processor.getDuplicateDetector() : null;
+        int warning = 0;
+        for (int i = 0; i < batch.kept; i++) {
+            int row = batch.keptRows[i];
+            while (warning < batch.warnings.size() && batch.warningRows[warning] < row) {
+                System.err.println(batch.warnings.get(warning++));
+            }
+            long paise = batch.paise[i];
+            int epochDay = batch.dates != null ? batch.dates[i] : CsvReader.NO_DATE;
+            // Checked here because the detector must see rows in file order
+            if (duplicates != null && duplicates.isDuplicate(batch.descriptions[i], paise, epochDay)) {
+                totals.countDuplicate();
+                metrics.countSkipped(PipelineMetrics.SkipReason.DUPLICATE);
+                continue;
+            }
+            int categoryIndex = batch.categories[i];
+            if (categoryIndex < 0) {
+                metrics.countSkipped(PipelineMetrics.SkipReason.ERROR);
+                System.err.println("Warning: Error processing row " + (batch.rowsBefore + row + 1) + ": " + batch.errors[i]);
+                continue;
+            }
+            if (paise > 0) {
+                totals.addIncome(paise);
+            } else if (paise < 0) {
+                totals.addExpense(categoryIndex, -paise);
+            }
+            if (rollups != null) {
+                rollups.add(epochDay, categoryIndex, paise, batch.descriptions[i]);
+            }
+            if (store != null) {
+                store.add(batch.descriptions[i], categoryIndex, paise, epochDay);
+            }
+            totals.countProcessed();
+            metrics.countProcessed();
+        }
+        while (warning < batch.warnings.size()) {
+            System.err.println(batch.warnings.get(warning++));
+        }
+        totals.countRows(batch.rows, 0);
+        metrics.countRows(batch.rows);
+        for (PipelineMetrics.SkipReason reason : PipelineMetrics.SkipReason.values()) {
+            metrics.countSkipped(reason, batch.skipped[reason.ordinal()]);
+        }
+
+        if (batch.rows > 0) {
+            metrics.recordStage(PipelineMetrics.Stage.PARSE, batch.parseNanos / batch.rows);
+            metrics.recordStage(PipelineMetrics.Stage.CATEGORIZE, batch.categorizeNanos / batch.rows);
+            metrics.recordStage(PipelineMetrics.Stage.AGGREGATE, (System.nanoTime() - start) / batch.rows);
+        }
+    }
+
+    /**
+     * Processes the file from a record boundary to the end on the calling thread.
+     */
+    private void finishSequentially(Path file, long offset, StatementProcessor.Columns columns,
+                                    StatementTotals totals, TransactionStore.Builder store) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             CsvReader reader = new CsvReader(Channels.newInputStream(channel.position(offset)))) {
+            while (processor.readRecord(reader)) {
+                String warning = processor.processRecord(reader, columns, totals, totals.getRowCount() + 1, store);
+                if (warning != null) {
+                    System.err.println(warning);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+package com.afsar.xpence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * StartupBenchmark measures how long a fresh JVM takes to get a categorizer ready and
+ * make its first prediction, comparing the serialized Weka models (plus re-parsing
+ * training-data.csv) with the binary model bundle. Every run happens in its own child
+ * JVM so class loading and JIT warm-up are paid each time, as in a batch job.
+ *
+ * Usage: java -cp xpence.jar com.afsar.xpence.StartupBenchmark [runs]
+ * (run from the directory that contains the model files)
+ */
+public class StartupBenchmark {
+
+    private static final String PROBE = "--probe";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(PROBE)) {
+            probe(args[1]);
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        if (!ModelBundle.exists()) {
+            System.err.println("Error: " + ModelBundle.DEFAULT_FILE + " not found. Run ModelTrainer first.");
+            return;
+        }
+
+        System.out.println("Measuring categorizer startup over " + runs + " fresh JVMs per mode...\n");
+        long[] legacy = measure("legacy", runs);
+        long[] bundle = measure("bundle", runs);
+
+        System.out.printf("%-28s %12s %12s%n", "", "ready (ms)", "process (ms)");
+        System.out.printf("%-28s %12d %12d%n", "Weka models + training CSV", legacy[0], legacy[1]);
+        System.out.printf("%-28s %12d %12d%n", "Binary model bundle", bundle[0], bundle[1]);
+        if (bundle[0] > 0) {
+            System.out.printf("%nBundle is ready %.1fx sooner (medians).%n", (double) legacy[0] / bundle[0]);
+        }
+    }
+
+    /**
+     * Runs the probe in child JVMs and returns the median load time and median
+     * total process time in milliseconds.
+     */
+    private static long[] measure(String mode, int runs) throws Exception {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Long> loadTimes = new ArrayList<>();
+        List<Long> totalTimes = new ArrayList<>();
+
+        for (int i = 0; i < runs; i++) {
+            ProcessBuilder builder = new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"),
+                    StartupBenchmark.class.getName(), PROBE, mode);
+            builder.redirectErrorStream(true);
+
+            long start = System.nanoTime();
+            Process process = builder.start();
+            String result = null;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("LOAD_MS=")) {
+                        result = line.substring("LOAD_MS=".length());
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            long totalMs = (System.nanoTime() - start) / 1_000_000;
+
+            if (exitCode != 0 || result == null) {
+                throw new Exception("Probe '" + mode + "' failed with exit code " + exitCode);
+            }
+            loadTimes.add(Long.parseLong(result));
+            totalTimes.add(totalMs);
+        }
+        return new long[] { median(loadTimes), median(totalTimes) };
+    }
+
+    /**
+     * Child JVM: loads the categorizer, makes one prediction and reports the time since
+     * JVM start.
+     */
+    private static void probe(String mode) throws Exception {
+        ExpenseCategorizer categorizer = mode.equals("bundle")
+            ? new ExpenseCategorizer(ModelBundle.load(ModelBundle.DEFAULT_FILE))
+            : new ExpenseCategorizer(1);
+        categorizer.predictCategory("ZOMATO LTD 25109");
+
+        long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("LOAD_MS=" + sinceJvmStart);
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
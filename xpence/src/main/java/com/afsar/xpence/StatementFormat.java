@@ -0,0 +1,134 @@
+package com.afsar.xpence;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The file formats a statement can arrive in. Every format opens as a CsvReader, so
+ * all of them feed the same header detection and row rules in StatementProcessor.
+ * Compressed formats are decompressed as a stream and workbooks are read one row at a
+ * time, so memory use does not grow with the size of the statement.
+ *
+ * The format is chosen by file name; anything unrecognized is read as plain CSV.
+ */
+public enum StatementFormat {
+    /** UTF-8 CSV text. */
+    CSV(".csv"),
+    /** Gzip-compressed CSV, such as statement.csv.gz. */
+    CSV_GZIP(".gz"),
+    /** A zip archive; the first .csv entry in it is read. */
+    ZIP(".zip"),
+    /** An Excel workbook; the first sheet is read. */
+    XLSX(".xlsx");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    StatementFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @param file A statement file
+     * @return Its format, judged by the file name
+     */
+    public static StatementFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (StatementFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return CSV;
+    }
+
+    /**
+     * @param file A file found while scanning a directory
+     * @return true if its name has one of the statement extensions
+     */
+    public static boolean isStatementFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (StatementFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a statement file in whatever format it is.
+     *
+     * @param file The statement file
+     * @return A reader positioned before the header row
+     * @throws IOException If the file cannot be opened
+     */
+    public static CsvReader openReader(Path file) throws IOException {
+        return of(file).newReader(file);
+    }
+
+    /**
+     * @return true if the file bytes are the CSV text itself, so byte offsets into the
+     *         file are record offsets (needed for parallel, pipelined and incremental
+     *         processing)
+     */
+    public boolean isPlainCsv() {
+        return this == CSV;
+    }
+
+    /**
+     * Opens a statement file in this format.
+     *
+     * @param file The statement file
+     * @return A reader positioned before the header row
+     * @throws IOException If the file cannot be opened or is not in this format
+     */
+    public CsvReader newReader(Path file) throws IOException {
+        switch (this) {
+            case XLSX:
+                return new XlsxReader(file);
+            case CSV:
+                return new CsvReader(new FileInputStream(file.toFile()));
+            default:
+                break;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()), BUFFER_SIZE);
+        try {
+            if (this == CSV_GZIP) {
+                return new CsvReader(new GZIPInputStream(in, BUFFER_SIZE));
+            }
+            ZipInputStream zip = new ZipInputStream(in);
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (isCsvEntry(entry)) {
+                    return new CsvReader(zip);
+                }
+            }
+            throw new IOException("No .csv file found in " + file);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true for a CSV file in an archive, skipping the resource-fork copies and
+     *         hidden files that macOS adds to archives
+     */
+    private static boolean isCsvEntry(ZipEntry entry) {
+        String name = entry.getName();
+        String baseName = name.substring(name.lastIndexOf('/') + 1);
+        return !entry.isDirectory()
+               && !name.startsWith("__MACOSX/")
+               && !baseName.startsWith(".")
+               && baseName.toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+}
\ No newline at end of file
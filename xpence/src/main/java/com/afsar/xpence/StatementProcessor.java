@@ -0,0 +1,414 @@
+package com.afsar.xpence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * StatementProcessor turns the rows of a bank statement into StatementTotals.
+ * It owns the header detection and per-row rules (skip blank rows, classify the
+ * description, split income from expenses) so that every ingestion path applies
+ * exactly the same logic.
+ *
+ * Every row is also counted in the processor's PipelineMetrics, with the reason if it
+ * was skipped, and a sample of rows is timed through the read, parse, categorize and
+ * aggregate stages.
+ */
+public class StatementProcessor {
+
+    /**
+     * Positions of the columns the processor needs, and of the optional date column
+     * (-1 if the statement has none).
+     */
+    public record Columns(int descriptionIndex, int amountIndex, int dateIndex) {
+
+        public boolean hasDate() {
+            return dateIndex >= 0;
+        }
+    }
+
+    private final ExpenseCategorizer categorizer;
+    private final String[] categoryNames;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private int merchantCapacity;   // 0 while rollups are off
+    private DuplicateDetector duplicates;
+
+    public StatementProcessor(ExpenseCategorizer categorizer) {
+        this.categorizer = categorizer;
+        this.categoryNames = categorizer.getCategoryNames();
+    }
+
+    /**
+     * @return Counters and stage latencies of every row this processor has handled
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes newTotals() collect per month, week and merchant rollups as well.
+     *
+     * @param merchantCapacity Number of merchants kept exactly (see StatementRollups)
+     */
+    public void enableRollups(int merchantCapacity) {
+        if (merchantCapacity <= 0) {
+            throw new IllegalArgumentException("Merchant capacity must be positive: " + merchantCapacity);
+        }
+        this.merchantCapacity = merchantCapacity;
+    }
+
+    /**
+     * @return true if totals from newTotals() collect rollups
+     */
+    public boolean isRollupsEnabled() {
+        return merchantCapacity > 0;
+    }
+
+    /**
+     * Skips rows that an earlier statement already counted (see DuplicateDetector).
+     * Statements must then be processed one at a time, in a single thread.
+     *
+     * @param detector The detector, holding the rows of earlier statements
+     */
+    public void enableDuplicateDetection(DuplicateDetector detector) {
+        this.duplicates = detector;
+    }
+
+    /**
+     * @return The duplicate detector, or null if duplicates are not skipped
+     */
+    public DuplicateDetector getDuplicateDetector() {
+        return duplicates;
+    }
+
+    /**
+     * Starts a new statement for the duplicate detector, if there is one. Duplicates
+     * need the transaction date, so a statement without a date column is processed
+     * without duplicate detection.
+     *
+     * @param columns Column positions from the statement's header
+     */
+    public void beginStatement(Columns columns) {
+        if (duplicates == null) {
+            return;
+        }
+        if (columns.hasDate()) {
+            duplicates.beginStatement();
+        } else {
+            System.out.println("Note: Statement has no Date column, so duplicate rows cannot be detected.");
+        }
+    }
+
+    /**
+     * @return Category names in class index order
+     */
+    public String[] getCategoryNames() {
+        return categoryNames.clone();
+    }
+
+    /**
+     * @return The categorizer's model fingerprint (see ExpenseCategorizer)
+     */
+    public long getModelFingerprint() {
+        return categorizer.getModelFingerprint();
+    }
+
+    /**
+     * @return Empty totals for this processor's categories, with rollups if enabled
+     */
+    public StatementTotals newTotals() {
+        StatementTotals totals = new StatementTotals(categoryNames);
+        if (merchantCapacity > 0) {
+            totals.enableRollups(merchantCapacity);
+        }
+        return totals;
+    }
+
+    /**
+     * Predicts the category of a description with this processor's categorizer.
+     *
+     * @param description Transaction description
+     * @return Category index, as used by StatementTotals
+     * @throws Exception If prediction fails
+     */
+    public int predictCategoryIndex(String description) throws Exception {
+        return categorizer.predictCategoryIndex(description);
+    }
+
+    /**
+     * Finds the Description and Amount columns in a header row.
+     * Prints an error and returns null if either column is missing.
+     *
+     * @param headers The header row fields
+     * @return The detected columns, or null if the header is unusable
+     */
+    public static Columns detectColumns(String[] headers) {
+        Columns columns = findColumns(headers);
+
+        if (columns.descriptionIndex() == -1) {
+            System.err.println("Error: Could not find 'Description' column in the CSV file.");
+            System.err.println("Available columns: " + String.join(", ", headers));
+            return null;
+        }
+
+        if (columns.amountIndex() == -1) {
+            System.err.println("Error: Could not find 'Amount' column in the CSV file.");
+            System.err.println("Available columns: " + String.join(", ", headers));
+            return null;
+        }
+
+        System.out.println("Found columns - Description: " + headers[columns.descriptionIndex()] +
+                         ", Amount: " + headers[columns.amountIndex()] +
+                         (columns.hasDate() ? ", Date: " + headers[columns.dateIndex()] : ""));
+        return columns;
+    }
+
+    /**
+     * Finds the Description, Amount and Date columns in a header row without printing
+     * anything. When there are several date columns (e.g. transaction and value date),
+     * the first one is used.
+     *
+     * @param headers The header row fields
+     * @return The column positions, with -1 for a column that is missing
+     */
+    public static Columns findColumns(String[] headers) {
+        int descriptionIndex = -1;
+        int amountIndex = -1;
+        int dateIndex = -1;
+
+        // Find the indices of Description, Amount and Date columns
+        for (int i = 0; i < headers.length; i++) {
+            String header = headers[i].trim().toLowerCase();
+            if (header.contains("description") || header.equals("desc")) {
+                descriptionIndex = i;
+            } else if (header.contains("amount") || header.equals("amt")) {
+                amountIndex = i;
+            } else if (header.contains("date") && dateIndex == -1) {
+                dateIndex = i;
+            }
+        }
+        return new Columns(descriptionIndex, amountIndex, dateIndex);
+    }
+
+    /**
+     * Processes a whole statement file sequentially on the calling thread.
+     *
+     * @param filePath Path to the statement, in any StatementFormat
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath) throws IOException {
+        return processFile(filePath, (TransactionStore.Builder) null);
+    }
+
+    /**
+     * Processes a whole statement file sequentially, also keeping every processed row.
+     *
+     * @param filePath Path to the CSV statement
+     * @param store Receives the processed rows, or null to keep none
+     * @return The statement totals, or null if the header is unusable
+     * @throws IOException If the file cannot be read
+     */
+    public StatementTotals processFile(String filePath, TransactionStore.Builder store) throws IOException {
+        StatementTotals totals = newTotals();
+
+        try (CsvReader reader = StatementFormat.openReader(Path.of(filePath))) {
+            Columns columns = null;
+
+            // Read the header row to find column indices
+            if (reader.nextRecord()) {
+                columns = detectColumns(reader.fields());
+                if (columns == null) {
+                    return null;
+                }
+                beginStatement(columns);
+            }
+
+            // Process each data row (progress is shown by a ProgressReporter)
+            while (readRecord(reader)) {
+                String warning = processRecord(reader, columns, totals, totals.getRowCount() + 1, store);
+                if (warning != null) {
+                    System.err.println(warning);
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Processes a whole statement file without console output, for unattended runs.
+     * Row warnings are handed to the given sink instead of being printed.
+     *
+     * @param filePath Path to the CSV statement
+     * @param warnings Receives one message per skipped row
+     * @return The statement totals
+     * @throws IOException If the file cannot be read or has no Description/Amount column
+     */
+    public StatementTotals processFile(String filePath, Consumer<String> warnings) throws IOException {
+        StatementTotals totals = newTotals();
+
+        try (CsvReader reader = StatementFormat.openReader(Path.of(filePath))) {
+            if (!reader.nextRecord()) {
+                return totals; // Empty file
+            }
+            String[] headers = reader.fields();
+            Columns columns = findColumns(headers);
+            if (columns.descriptionIndex() == -1 || columns.amountIndex() == -1) {
+                throw new IOException("Could not find 'Description' and 'Amount' columns. Available columns: " +
+                                      String.join(", ", headers));
+            }
+            beginStatement(columns);
+
+            while (readRecord(reader)) {
+                String warning = processRecord(reader, columns, totals, totals.getRowCount() + 1);
+                if (warning != null) {
+                    warnings.accept(warning);
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Advances the reader to the next data record, timing the read stage.
+     *
+     * @param reader The statement reader
+     * @return false at the end of the input
+     * @throws IOException If reading fails
+     */
+    public boolean readRecord(CsvReader reader) throws IOException {
+        if (!metrics.sampleRow()) {
+            return reader.nextRecord();
+        }
+        long start = System.nanoTime();
+        boolean found = reader.nextRecord();
+        if (found) {
+            metrics.recordStage(PipelineMetrics.Stage.READ, System.nanoTime() - start);
+        }
+        return found;
+    }
+
+    /**
+     * Applies the per-row rules to the current record of a reader.
+     *
+     * @param reader Reader positioned on a data record
+     * @param columns Column positions from the header
+     * @param totals Totals to update
+     * @param rowNumber 1-based row number used in warnings
+     * @return A warning message if the row was skipped, otherwise null
+     */
+    public String processRecord(CsvReader reader, Columns columns, StatementTotals totals, long rowNumber) {
+        return processRecord(reader, columns, totals, rowNumber, null);
+    }
+
+    /**
+     * Applies the per-row rules to the current record of a reader and keeps the row
+     * (description, category, amount and date) if it was processed.
+     *
+     * @param reader Reader positioned on a data record
+     * @param columns Column positions from the header
+     * @param totals Totals to update
+     * @param rowNumber 1-based row number used in warnings
+     * @param store Receives processed rows, or null
+     * @return A warning message if the row was skipped, otherwise null
+     */
+    public String processRecord(CsvReader reader, Columns columns, StatementTotals totals, long rowNumber,
+                                TransactionStore.Builder store) {
+        return processRecord(reader, columns, totals, rowNumber, store, metrics);
+    }
+
+    /**
+     * Applies the per-row rules to the current record of a reader, counting the row in
+     * the given metrics instead of this processor's. Used by workers whose rows may
+     * still be discarded; see PipelineMetrics.newCounterScope().
+     *
+     * @param reader Reader positioned on a data record
+     * @param columns Column positions from the header
+     * @param totals Totals to update
+     * @param rowNumber 1-based row number used in warnings
+     * @param store Receives processed rows, or null
+     * @param metrics Metrics that count the row
+     * @return A warning message if the row was skipped, otherwise null
+     */
+    public String processRecord(CsvReader reader, Columns columns, StatementTotals totals, long rowNumber,
+                                TransactionStore.Builder store, PipelineMetrics metrics) {
+        totals.countRow();
+        metrics.countRow();
+
+        if (reader.isBlankRecord()) {
+            metrics.countSkipped(PipelineMetrics.SkipReason.BLANK_LINE);
+            return null; // Skip empty lines
+        }
+
+        try {
+            boolean timed = metrics.sampleRow();
+            long start = timed ? System.nanoTime() : 0;
+            if (reader.fieldCount() <= Math.max(columns.descriptionIndex(), columns.amountIndex())) {
+                metrics.countSkipped(PipelineMetrics.SkipReason.INSUFFICIENT_COLUMNS);
+                return "Warning: Row " + rowNumber + " has insufficient columns, skipping.";
+            }
+
+            // Get the description
+            if (reader.isBlank(columns.descriptionIndex())) {
+                metrics.countSkipped(PipelineMetrics.SkipReason.EMPTY_DESCRIPTION);
+                return "Warning: Row " + rowNumber + " has empty description, skipping.";
+            }
+            String description = reader.trimmedField(columns.descriptionIndex());
+
+            // Parse the amount in paise (currency symbols, separators and whitespace are ignored)
+            long paise = reader.parseAmountPaise(columns.amountIndex());
+            StatementRollups rollups = totals.getRollups();
+            boolean checkDuplicate = duplicates != null && columns.hasDate();
+            int epochDay = (store != null || rollups != null || checkDuplicate) && columns.hasDate()
+                           && reader.fieldCount() > columns.dateIndex()
+                ? reader.parseEpochDay(columns.dateIndex()) : CsvReader.NO_DATE;
+            long parsed = timed ? System.nanoTime() : 0;
+
+            // Skip rows an earlier statement already counted, before spending a prediction on them
+            if (checkDuplicate && duplicates.isDuplicate(description, paise, epochDay)) {
+                totals.countDuplicate();
+                metrics.countSkipped(PipelineMetrics.SkipReason.DUPLICATE);
+                return null;
+            }
+
+            // Predict the category
+            int categoryIndex = categorizer.predictCategoryIndex(description);
+            long categorized = timed ? System.nanoTime() : 0;
+
+            // Handle income vs expenses based on amount sign
+            if (paise > 0) {
+                // Positive amount = Income - add to income total, don't categorize as expense
+                totals.addIncome(paise);
+            } else if (paise < 0) {
+                // Negative amount = Expense - add absolute value to spending category
+                totals.addExpense(categoryIndex, -paise);
+            }
+            // Skip zero amounts
+
+            if (rollups != null) {
+                rollups.add(epochDay, categoryIndex, paise, description);
+            }
+            if (store != null) {
+                store.add(description, categoryIndex, paise, epochDay);
+            }
+            totals.countProcessed();
+            metrics.countProcessed();
+            if (timed) {
+                long end = System.nanoTime();
+                metrics.recordStage(PipelineMetrics.Stage.PARSE, parsed - start);
+                metrics.recordStage(PipelineMetrics.Stage.CATEGORIZE, categorized - parsed);
+                metrics.recordStage(PipelineMetrics.Stage.AGGREGATE, end - categorized);
+            }
+            return null;
+
+        } catch (NumberFormatException e) {
+            metrics.countSkipped(PipelineMetrics.SkipReason.INVALID_AMOUNT);
+            return "Warning: Row " + rowNumber + " has invalid amount format, skipping.";
+        } catch (Exception e) {
+            metrics.countSkipped(PipelineMetrics.SkipReason.ERROR);
+            return "Warning: Error processing row " + rowNumber + ": " + e.getMessage();
+        }
+    }
+}
\ No newline at end of file
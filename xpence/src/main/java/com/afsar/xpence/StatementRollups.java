@@ -0,0 +1,455 @@
+package com.afsar.xpence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * StatementRollups breaks a statement down along more dimensions than StatementTotals:
+ * spending per category and income per calendar month, spending and income per week
+ * (weeks start on Monday) and spending per merchant. It is filled in the same single
+ * pass as the totals, and instances built from parts of the input combine with merge().
+ * Month and week figures come out the same in any grouping; merchant figures do too
+ * while the merge stays exact (isMerchantsExact()), but once merchants have been
+ * pruned into "other" they depend on how the input was split.
+ *
+ * Months and weeks cost one small array each, so memory grows only with the time span
+ * of the statement. Merchants are keyed by the description with digits and punctuation
+ * removed ("UPI/SWIGGY*ORDER 81211" and "UPI/SWIGGY*ORDER 99120" are one merchant) and
+ * kept in a table of bounded size: once it holds twice the capacity, only the capacity
+ * merchants with the highest spending are kept and the rest is added to an "other"
+ * total. Merchant figures are exact as long as a statement has no more distinct
+ * merchants than the capacity; beyond that, small merchants may be undercounted but
+ * the totals across all merchants stay exact.
+ */
+public class StatementRollups {
+
+    public static final int DEFAULT_MERCHANT_CAPACITY = 10_000;
+
+    // Layout of a week's slot
+    private static final int SPENDING = 0;
+    private static final int INCOME = 1;
+    private static final int COUNT = 2;
+
+    private static final int MAX_MERCHANT_LENGTH = 48;
+
+    private final String[] categoryNames;
+    private final int merchantCapacity;
+
+    // Month (year * 12 + month - 1) -> spending per category, then income and row count
+    private final TreeMap<Integer, long[]> months = new TreeMap<>();
+    // Monday of the week as an epoch day -> spending, income, row count
+    private final TreeMap<Integer, long[]> weeks = new TreeMap<>();
+    private final Map<String, Merchant> merchants = new HashMap<>();
+    private long otherMerchantSpendingPaise;
+    private long otherMerchantCount;
+    private long undatedRows;
+
+    // The last date seen and its month, since statements are usually in date order
+    private int lastEpochDay = CsvReader.NO_DATE;
+    private int lastMonth;
+
+    /**
+     * Running figures of one merchant.
+     */
+    private static class Merchant {
+        long spendingPaise;
+        long incomePaise;
+        long count;
+    }
+
+    /**
+     * Spending of one merchant, as reported by topMerchants().
+     */
+    public record MerchantTotal(String merchant, long spendingPaise, long incomePaise, long count) {
+    }
+
+    /**
+     * @param categoryNames Category names in class index order
+     * @param merchantCapacity Number of merchants kept exactly (at least 1)
+     */
+    public StatementRollups(String[] categoryNames, int merchantCapacity) {
+        if (merchantCapacity <= 0) {
+            throw new IllegalArgumentException("Merchant capacity must be positive: " + merchantCapacity);
+        }
+        this.categoryNames = categoryNames;
+        this.merchantCapacity = merchantCapacity;
+    }
+
+    /**
+     * Adds one processed transaction.
+     *
+     * @param epochDay The date as days since 1970-01-01, or CsvReader.NO_DATE
+     * @param categoryIndex The predicted class index
+     * @param paise The signed amount in paise (negative for expenses)
+     * @param description The transaction description
+     */
+    public void add(int epochDay, int categoryIndex, long paise, String description) {
+        addToMerchant(epochDay, categoryIndex, paise, merchantKey(description));
+    }
+
+    /**
+     * Adds one processed transaction whose merchant key is already known, e.g. when a
+     * TransactionStore is aggregated and every distinct description is keyed once.
+     *
+     * @param epochDay The date as days since 1970-01-01, or CsvReader.NO_DATE
+     * @param categoryIndex The predicted class index
+     * @param paise The signed amount in paise (negative for expenses)
+     * @param merchant The merchant key from merchantKey()
+     */
+    public void addToMerchant(int epochDay, int categoryIndex, long paise, String merchant) {
+        if (epochDay == CsvReader.NO_DATE) {
+            undatedRows++;
+        } else {
+            long[] month = months.computeIfAbsent(monthOf(epochDay), key -> new long[categoryNames.length + 2]);
+            long[] week = weeks.computeIfAbsent(weekOf(epochDay), key -> new long[3]);
+            if (paise < 0) {
+                month[categoryIndex] -= paise;
+                week[SPENDING] -= paise;
+            } else {
+                month[categoryNames.length] += paise;
+                week[INCOME] += paise;
+            }
+            month[categoryNames.length + 1]++;
+            week[COUNT]++;
+        }
+
+        Merchant figures = merchants.computeIfAbsent(merchant, key -> new Merchant());
+        if (paise < 0) {
+            figures.spendingPaise -= paise;
+        } else {
+            figures.incomePaise += paise;
+        }
+        figures.count++;
+        if (merchants.size() > 2 * merchantCapacity) {
+            pruneMerchants();
+        }
+    }
+
+    /**
+     * Adds another set of rollups into this one.
+     *
+     * @param other Rollups to merge in, built for the same categories
+     */
+    public void merge(StatementRollups other) {
+        if (other.categoryNames != categoryNames && !Arrays.equals(other.categoryNames, categoryNames)) {
+            throw new IllegalArgumentException("Cannot merge rollups built for different categories");
+        }
+        other.months.forEach((key, values) -> addAll(months.computeIfAbsent(key, k -> new long[values.length]), values));
+        other.weeks.forEach((key, values) -> addAll(weeks.computeIfAbsent(key, k -> new long[values.length]), values));
+        other.merchants.forEach((key, figures) -> {
+            Merchant merchant = merchants.computeIfAbsent(key, k -> new Merchant());
+            merchant.spendingPaise += figures.spendingPaise;
+            merchant.incomePaise += figures.incomePaise;
+            merchant.count += figures.count;
+        });
+        otherMerchantSpendingPaise += other.otherMerchantSpendingPaise;
+        otherMerchantCount += other.otherMerchantCount;
+        undatedRows += other.undatedRows;
+        if (merchants.size() > 2 * merchantCapacity) {
+            pruneMerchants();
+        }
+    }
+
+    /**
+     * Writes the rollups (not the category names), e.g. into an incremental checkpoint.
+     *
+     * @param out Destination
+     * @throws IOException If writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(merchantCapacity);
+        writeBuckets(out, months);
+        writeBuckets(out, weeks);
+        out.writeInt(merchants.size());
+        for (Map.Entry<String, Merchant> entry : merchants.entrySet()) {
+            Merchant merchant = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(merchant.spendingPaise);
+            out.writeLong(merchant.incomePaise);
+            out.writeLong(merchant.count);
+        }
+        out.writeLong(otherMerchantSpendingPaise);
+        out.writeLong(otherMerchantCount);
+        out.writeLong(undatedRows);
+    }
+
+    /**
+     * Reads rollups written by write().
+     *
+     * @param in Source
+     * @param categoryNames Category names the rollups were built for
+     * @return The rollups
+     * @throws IOException If reading fails or the data does not fit the categories
+     */
+    public static StatementRollups read(DataInput in, String[] categoryNames) throws IOException {
+        int merchantCapacity = in.readInt();
+        if (merchantCapacity <= 0) {
+            throw new IOException("Invalid merchant capacity " + merchantCapacity);
+        }
+        StatementRollups rollups = new StatementRollups(categoryNames, merchantCapacity);
+        readBuckets(in, rollups.months, categoryNames.length + 2);
+        readBuckets(in, rollups.weeks, 3);
+        int merchantCount = in.readInt();
+        for (int i = 0; i < merchantCount; i++) {
+            Merchant merchant = new Merchant();
+            String key = in.readUTF();
+            merchant.spendingPaise = in.readLong();
+            merchant.incomePaise = in.readLong();
+            merchant.count = in.readLong();
+            rollups.merchants.put(key, merchant);
+        }
+        rollups.otherMerchantSpendingPaise = in.readLong();
+        rollups.otherMerchantCount = in.readLong();
+        rollups.undatedRows = in.readLong();
+        return rollups;
+    }
+
+    /**
+     * @return The months that have transactions, in order, as year * 12 + month - 1
+     */
+    public int[] getMonths() {
+        return months.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param month A month as year * 12 + month - 1
+     * @return The month formatted as yyyy-MM
+     */
+    public static String formatMonth(int month) {
+        return String.format("%04d-%02d", month / 12, month % 12 + 1);
+    }
+
+    /**
+     * @return Spending of the category in the month in paise
+     */
+    public long getMonthSpendingPaise(int month, int categoryIndex) {
+        long[] values = months.get(month);
+        return values == null ? 0 : values[categoryIndex];
+    }
+
+    /**
+     * @return Spending of all categories in the month in paise
+     */
+    public long getMonthSpendingPaise(int month) {
+        long[] values = months.get(month);
+        long total = 0;
+        for (int c = 0; values != null && c < categoryNames.length; c++) {
+            total += values[c];
+        }
+        return total;
+    }
+
+    /**
+     * @return Income of the month in paise
+     */
+    public long getMonthIncomePaise(int month) {
+        long[] values = months.get(month);
+        return values == null ? 0 : values[categoryNames.length];
+    }
+
+    /**
+     * @return Number of transactions in the month
+     */
+    public long getMonthCount(int month) {
+        long[] values = months.get(month);
+        return values == null ? 0 : values[categoryNames.length + 1];
+    }
+
+    /**
+     * @return Index of the category with the highest spending in the month, or -1 if
+     *         the month has no expenses (ties keep class index order)
+     */
+    public int getMonthTopCategory(int month) {
+        int top = -1;
+        for (int c = 0; c < categoryNames.length; c++) {
+            long spending = getMonthSpendingPaise(month, c);
+            if (spending > 0 && (top < 0 || spending > getMonthSpendingPaise(month, top))) {
+                top = c;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @return The weeks that have transactions, in order, as the epoch day of their Monday
+     */
+    public int[] getWeeks() {
+        return weeks.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return Spending of the week starting on the given Monday in paise
+     */
+    public long getWeekSpendingPaise(int week) {
+        long[] values = weeks.get(week);
+        return values == null ? 0 : values[SPENDING];
+    }
+
+    /**
+     * @return Income of the week starting on the given Monday in paise
+     */
+    public long getWeekIncomePaise(int week) {
+        long[] values = weeks.get(week);
+        return values == null ? 0 : values[INCOME];
+    }
+
+    /**
+     * @return Number of transactions in the week starting on the given Monday
+     */
+    public long getWeekCount(int week) {
+        long[] values = weeks.get(week);
+        return values == null ? 0 : values[COUNT];
+    }
+
+    /**
+     * Finds the merchants with the highest spending with a min-heap of n entries, so
+     * only the result is sorted, not the whole merchant table.
+     *
+     * @param n Maximum number of merchants to return
+     * @return Up to n merchants with spending, highest first (ties by name)
+     */
+    public List<MerchantTotal> topMerchants(int n) {
+        Comparator<MerchantTotal> bySpending = Comparator.comparingLong(MerchantTotal::spendingPaise)
+                .thenComparing(MerchantTotal::merchant, Comparator.reverseOrder());
+        PriorityQueue<MerchantTotal> heap = new PriorityQueue<>(Math.max(1, n + 1), bySpending);
+        for (Map.Entry<String, Merchant> entry : merchants.entrySet()) {
+            Merchant merchant = entry.getValue();
+            if (merchant.spendingPaise <= 0 || n <= 0) {
+                continue;
+            }
+            heap.add(new MerchantTotal(entry.getKey(), merchant.spendingPaise, merchant.incomePaise, merchant.count));
+            if (heap.size() > n) {
+                heap.poll(); // Drop the smallest
+            }
+        }
+        List<MerchantTotal> top = new ArrayList<>(heap);
+        top.sort(bySpending.reversed());
+        return top;
+    }
+
+    /**
+     * @return Number of merchants currently tracked
+     */
+    public int getMerchantCount() {
+        return merchants.size();
+    }
+
+    /**
+     * @return Spending in paise of merchants dropped from the table to bound its size
+     */
+    public long getOtherMerchantSpendingPaise() {
+        return otherMerchantSpendingPaise;
+    }
+
+    /**
+     * @return true if no merchant has been dropped, so all merchant figures are exact
+     */
+    public boolean isMerchantsExact() {
+        return otherMerchantCount == 0;
+    }
+
+    /**
+     * @return Number of processed transactions without a readable date
+     */
+    public long getUndatedRows() {
+        return undatedRows;
+    }
+
+    public int getMerchantCapacity() {
+        return merchantCapacity;
+    }
+
+    /**
+     * Normalizes a description to a merchant key: upper case, digits and punctuation
+     * dropped, whitespace collapsed, and at most MAX_MERCHANT_LENGTH characters.
+     *
+     * @param description The transaction description
+     * @return The merchant key ("" if nothing is left)
+     */
+    public static String merchantKey(String description) {
+        StringBuilder key = new StringBuilder(Math.min(description.length(), MAX_MERCHANT_LENGTH));
+        boolean space = false;
+        for (int i = 0; i < description.length() && key.length() < MAX_MERCHANT_LENGTH; i++) {
+            char c = description.charAt(i);
+            if (Character.isLetter(c)) {
+                if (space && key.length() > 0) {
+                    key.append(' ');
+                }
+                space = false;
+                key.append(Character.toUpperCase(c));
+            } else if (!Character.isDigit(c)) {
+                space = true;
+            }
+        }
+        return key.toString();
+    }
+
+    private int monthOf(int epochDay) {
+        if (epochDay != lastEpochDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            lastMonth = date.getYear() * 12 + date.getMonthValue() - 1;
+            lastEpochDay = epochDay;
+        }
+        return lastMonth;
+    }
+
+    private static int weekOf(int epochDay) {
+        // 1970-01-01 was a Thursday
+        return epochDay - Math.floorMod(epochDay + 3, 7);
+    }
+
+    /**
+     * Keeps the merchantCapacity merchants with the highest spending (then income) and
+     * folds the rest into the "other" total.
+     */
+    private void pruneMerchants() {
+        List<Map.Entry<String, Merchant>> entries = new ArrayList<>(merchants.entrySet());
+        entries.sort(Comparator.<Map.Entry<String, Merchant>>comparingLong(e -> e.getValue().spendingPaise)
+                .thenComparingLong(e -> e.getValue().incomePaise)
+                .reversed()
+                .thenComparing(Map.Entry::getKey));
+        for (Map.Entry<String, Merchant> entry : entries.subList(merchantCapacity, entries.size())) {
+            otherMerchantSpendingPaise += entry.getValue().spendingPaise;
+            otherMerchantCount += entry.getValue().count;
+            merchants.remove(entry.getKey());
+        }
+    }
+
+    private static void addAll(long[] target, long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            target[i] += values[i];
+        }
+    }
+
+    private static void writeBuckets(DataOutput out, TreeMap<Integer, long[]> buckets) throws IOException {
+        out.writeInt(buckets.size());
+        for (Map.Entry<Integer, long[]> entry : buckets.entrySet()) {
+            out.writeInt(entry.getKey());
+            for (long value : entry.getValue()) {
+                out.writeLong(value);
+            }
+        }
+    }
+
+    private static void readBuckets(DataInput in, TreeMap<Integer, long[]> buckets, int width) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int key = in.readInt();
+            long[] values = new long[width];
+            for (int j = 0; j < width; j++) {
+                values[j] = in.readLong();
+            }
+            buckets.put(key, values);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,367 @@
+package com.afsar.xpence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * StatementTotals holds the running results of processing a statement: spending per
+ * category, total income and row counters. Separate instances can be filled
+ * independently (e.g. one per file chunk or worker thread) and combined with merge().
+ *
+ * Categories are addressed by the classifier's class index, and amounts are exact
+ * fixed-point paise (1/100 of a rupee) kept in a flat long array, so adding a row
+ * neither hashes a String nor boxes a Double. For every category the array holds
+ * the sum, count, minimum and maximum of its expenses.
+ *
+ * Totals can optionally carry StatementRollups (per month, week and merchant), which
+ * are merged, written and read along with them.
+ */
+public class StatementTotals {
+
+    // Layout of one category's slot in stats[]
+    private static final int SUM = 0;
+    private static final int COUNT = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int STRIDE = 4;
+
+    private final String[] categoryNames;
+    private final long[] stats;
+    private long totalIncomePaise = 0;
+    private long incomeCount = 0;
+    private long processedRows = 0;
+    private long rowCount = 0;
+    private long duplicateRows = 0;
+    private StatementRollups rollups;
+
+    /**
+     * @param categoryNames Category names in class index order (see ExpenseCategorizer.getCategoryNames())
+     */
+    public StatementTotals(String[] categoryNames) {
+        this.categoryNames = categoryNames;
+        this.stats = new long[categoryNames.length * STRIDE];
+        for (int c = 0; c < categoryNames.length; c++) {
+            stats[c * STRIDE + MIN] = Long.MAX_VALUE;
+            stats[c * STRIDE + MAX] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Starts collecting per month, week and merchant rollups for the rows added from now on.
+     *
+     * @param merchantCapacity Number of merchants kept exactly
+     * @return The (empty) rollups
+     */
+    public StatementRollups enableRollups(int merchantCapacity) {
+        rollups = new StatementRollups(categoryNames, merchantCapacity);
+        return rollups;
+    }
+
+    /**
+     * @return The rollups, or null if they were not enabled
+     */
+    public StatementRollups getRollups() {
+        return rollups;
+    }
+
+    /**
+     * Records an expense against a spending category.
+     *
+     * @param categoryIndex The predicted class index
+     * @param paise The (positive) expense amount in paise
+     */
+    public void addExpense(int categoryIndex, long paise) {
+        int slot = categoryIndex * STRIDE;
+        stats[slot + SUM] += paise;
+        stats[slot + COUNT]++;
+        if (paise < stats[slot + MIN]) {
+            stats[slot + MIN] = paise;
+        }
+        if (paise > stats[slot + MAX]) {
+            stats[slot + MAX] = paise;
+        }
+    }
+
+    /**
+     * @param paise The (positive) income amount in paise
+     */
+    public void addIncome(long paise) {
+        totalIncomePaise += paise;
+        incomeCount++;
+    }
+
+    /**
+     * Counts a row read from the statement, whether or not it could be processed.
+     */
+    public void countRow() {
+        rowCount++;
+    }
+
+    /**
+     * Counts a row that was successfully categorized.
+     *
+     * @return The number of processed rows so far
+     */
+    public long countProcessed() {
+        return ++processedRows;
+    }
+
+    /**
+     * Counts a row skipped because an earlier statement already counted it.
+     */
+    public void countDuplicate() {
+        duplicateRows++;
+    }
+
+    /**
+     * Counts duplicate rows in bulk, e.g. when totals are rebuilt from a TransactionStore.
+     *
+     * @param rows Rows skipped as duplicates of rows in earlier statements
+     */
+    public void countDuplicates(long rows) {
+        duplicateRows += rows;
+    }
+
+    /**
+     * Counts rows in bulk, e.g. when totals are rebuilt from a TransactionStore.
+     *
+     * @param rows Rows read, whether or not they could be processed
+     * @param processed Rows that were successfully categorized
+     */
+    public void countRows(long rows, long processed) {
+        rowCount += rows;
+        processedRows += processed;
+    }
+
+    /**
+     * Adds another set of totals into this one.
+     *
+     * @param other Totals to merge in, built for the same categories
+     */
+    public void merge(StatementTotals other) {
+        if (other.categoryNames != categoryNames && !Arrays.equals(other.categoryNames, categoryNames)) {
+            throw new IllegalArgumentException("Cannot merge totals built for different categories");
+        }
+        for (int slot = 0; slot < stats.length; slot += STRIDE) {
+            stats[slot + SUM] += other.stats[slot + SUM];
+            stats[slot + COUNT] += other.stats[slot + COUNT];
+            stats[slot + MIN] = Math.min(stats[slot + MIN], other.stats[slot + MIN]);
+            stats[slot + MAX] = Math.max(stats[slot + MAX], other.stats[slot + MAX]);
+        }
+        totalIncomePaise += other.totalIncomePaise;
+        incomeCount += other.incomeCount;
+        processedRows += other.processedRows;
+        rowCount += other.rowCount;
+        duplicateRows += other.duplicateRows;
+        if (other.rollups != null) {
+            if (rollups == null) {
+                enableRollups(other.rollups.getMerchantCapacity());
+            }
+            rollups.merge(other.rollups);
+        }
+    }
+
+    /**
+     * Writes the counters, per-category statistics and rollups (not the category names).
+     *
+     * @param out Destination
+     * @throws IOException If writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(categoryNames.length);
+        for (long value : stats) {
+            out.writeLong(value);
+        }
+        out.writeLong(totalIncomePaise);
+        out.writeLong(incomeCount);
+        out.writeLong(processedRows);
+        out.writeLong(rowCount);
+        out.writeLong(duplicateRows);
+        out.writeBoolean(rollups != null);
+        if (rollups != null) {
+            rollups.write(out);
+        }
+    }
+
+    /**
+     * Reads totals written by write().
+     *
+     * @param in Source
+     * @param categoryNames Category names the totals were built for
+     * @return The totals
+     * @throws IOException If reading fails or the number of categories does not match
+     */
+    public static StatementTotals read(DataInput in, String[] categoryNames) throws IOException {
+        int numCategories = in.readInt();
+        if (numCategories != categoryNames.length) {
+            throw new IOException("Totals have " + numCategories + " categories, expected " + categoryNames.length);
+        }
+        StatementTotals totals = new StatementTotals(categoryNames);
+        for (int i = 0; i < totals.stats.length; i++) {
+            totals.stats[i] = in.readLong();
+        }
+        totals.totalIncomePaise = in.readLong();
+        totals.incomeCount = in.readLong();
+        totals.processedRows = in.readLong();
+        totals.rowCount = in.readLong();
+        totals.duplicateRows = in.readLong();
+        if (in.readBoolean()) {
+            totals.rollups = StatementRollups.read(in, categoryNames);
+        }
+        return totals;
+    }
+
+    /**
+     * @return Number of categories (the classifier's number of classes)
+     */
+    public int getCategoryCount() {
+        return categoryNames.length;
+    }
+
+    public String getCategoryName(int categoryIndex) {
+        return categoryNames[categoryIndex];
+    }
+
+    /**
+     * @return Sum of the category's expenses in paise
+     */
+    public long getExpenseTotalPaise(int categoryIndex) {
+        return stats[categoryIndex * STRIDE + SUM];
+    }
+
+    /**
+     * @return Number of expenses recorded against the category
+     */
+    public long getExpenseCount(int categoryIndex) {
+        return stats[categoryIndex * STRIDE + COUNT];
+    }
+
+    /**
+     * @return Smallest expense of the category in paise, or 0 if it has none
+     */
+    public long getMinExpensePaise(int categoryIndex) {
+        return getExpenseCount(categoryIndex) == 0 ? 0 : stats[categoryIndex * STRIDE + MIN];
+    }
+
+    /**
+     * @return Largest expense of the category in paise, or 0 if it has none
+     */
+    public long getMaxExpensePaise(int categoryIndex) {
+        return getExpenseCount(categoryIndex) == 0 ? 0 : stats[categoryIndex * STRIDE + MAX];
+    }
+
+    /**
+     * @return Sum of all expenses in paise
+     */
+    public long getTotalSpendingPaise() {
+        long total = 0;
+        for (int slot = 0; slot < stats.length; slot += STRIDE) {
+            total += stats[slot + SUM];
+        }
+        return total;
+    }
+
+    public long getTotalIncomePaise() {
+        return totalIncomePaise;
+    }
+
+    public long getIncomeCount() {
+        return incomeCount;
+    }
+
+    /**
+     * @return true if no expense has been recorded in any category
+     */
+    public boolean hasNoExpenses() {
+        for (int slot = 0; slot < stats.length; slot += STRIDE) {
+            if (stats[slot + COUNT] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Indices of the categories that have expenses, highest spending first
+     *         (ties keep class index order)
+     */
+    public int[] categoriesBySpending() {
+        int used = 0;
+        int[] order = new int[categoryNames.length];
+        for (int c = 0; c < categoryNames.length; c++) {
+            if (getExpenseCount(c) > 0) {
+                // Insertion sort: there are only a handful of categories
+                int i = used++;
+                while (i > 0 && getExpenseTotalPaise(order[i - 1]) < getExpenseTotalPaise(c)) {
+                    order[i] = order[i - 1];
+                    i--;
+                }
+                order[i] = c;
+            }
+        }
+        return Arrays.copyOf(order, used);
+    }
+
+    /**
+     * Builds a category name -> rupees map of the categories that have expenses. Only
+     * meant for consumers that need a Map, such as the pie chart.
+     *
+     * @return A new map of spending per category
+     */
+    public HashMap<String, Double> toCategoryMap() {
+        HashMap<String, Double> map = new HashMap<>();
+        for (int c = 0; c < categoryNames.length; c++) {
+            if (getExpenseCount(c) > 0) {
+                map.put(categoryNames[c], toRupees(getExpenseTotalPaise(c)));
+            }
+        }
+        return map;
+    }
+
+    public long getProcessedRows() {
+        return processedRows;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Number of rows skipped as duplicates of rows in earlier statements
+     */
+    public long getDuplicateRows() {
+        return duplicateRows;
+    }
+
+    /**
+     * @param paise An amount in paise
+     * @return The amount in rupees
+     */
+    public static double toRupees(long paise) {
+        return paise / 100.0;
+    }
+
+    /**
+     * Formats paise as a plain decimal rupee amount with two fraction digits
+     * (e.g. -1234.50), without going through floating point.
+     *
+     * @param paise An amount in paise
+     * @return The formatted amount
+     */
+    public static String formatPaise(long paise) {
+        StringBuilder text = new StringBuilder(24);
+        if (paise < 0) {
+            text.append('-');
+        }
+        long abs = Math.abs(paise);
+        long fraction = abs % 100;
+        text.append(abs / 100).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction).toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package com.afsar.xpence;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * SyntheticStatementGenerator writes reproducible bank statements for benchmarks and
+ * load tests. Descriptions are drawn from the patterns in training-data.csv with every
+ * digit run replaced by fresh digits of the same length, so merchants repeat the way
+ * they do in real exports while order numbers and reference IDs vary. The same seed
+ * always produces the same file.
+ *
+ * Usage: java -cp xpence.jar com.afsar.xpence.SyntheticStatementGenerator rows output.csv [seed]
+ */
+public class SyntheticStatementGenerator {
+
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MMM-yyyy", Locale.ENGLISH);
+    private static final LocalDate START_DATE = LocalDate.of(2024, 1, 1);
+
+    private final List<String> patterns;
+    private final List<Boolean> incomePatterns;
+    private final SplittableRandom random;
+    private final StringBuilder description = new StringBuilder(64);
+
+    /**
+     * @param seed Seed for the pseudo-random sequence
+     * @throws IOException If training-data.csv cannot be read
+     */
+    public SyntheticStatementGenerator(long seed) throws IOException {
+        this.patterns = new ArrayList<>();
+        this.incomePatterns = new ArrayList<>();
+        this.random = new SplittableRandom(seed);
+
+        try (InputStream is = SyntheticStatementGenerator.class.getClassLoader().getResourceAsStream("training-data.csv")) {
+            if (is == null) throw new IOException("training-data.csv not found.");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                String[] fields = CsvReader.parseLine(line);
+                if (fields.length >= 2 && !fields[0].isBlank()) {
+                    patterns.add(fields[0].trim());
+                    incomePatterns.add(fields[1].trim().equals("Income"));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A description drawn from the training patterns with its digits re-rolled
+     */
+    public String nextDescription() {
+        return nextDescription(random.nextInt(patterns.size()));
+    }
+
+    private String nextDescription(int patternIndex) {
+        String pattern = patterns.get(patternIndex);
+        description.setLength(0);
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            description.append(c >= '0' && c <= '9' ? (char) ('0' + random.nextInt(10)) : c);
+        }
+        return description.toString();
+    }
+
+    /**
+     * Writes a statement with a Date,Description,Amount header.
+     *
+     * @param rows Number of transactions to write
+     * @param out Destination for the CSV text
+     * @throws IOException If writing fails
+     */
+    public void writeStatement(long rows, Writer out) throws IOException {
+        out.write("Date,Description,Amount\n");
+        StringBuilder line = new StringBuilder(96);
+        for (long row = 0; row < rows; row++) {
+            int patternIndex = random.nextInt(patterns.size());
+            String text = nextDescription(patternIndex);
+
+            // Income rows are positive salary-sized amounts, everything else a spend
+            long paise = incomePatterns.get(patternIndex)
+                ? 2_000_000 + random.nextLong(10_000_000)
+                : -(100 + (long) (Math.exp(random.nextDouble() * 9) * 100));
+
+            line.setLength(0);
+            line.append(START_DATE.plusDays(row * 365 / Math.max(rows, 1)).format(DATE_FORMAT)).append(',');
+            line.append('"').append(text.replace("\"", "\"\"")).append('"').append(',');
+            if (paise < 0) {
+                line.append('-');
+                paise = -paise;
+            }
+            line.append(paise / 100).append('.');
+            long fraction = paise % 100;
+            if (fraction < 10) {
+                line.append('0');
+            }
+            line.append(fraction).append('\n');
+            out.append(line);
+        }
+    }
+
+    /**
+     * Writes a statement file.
+     *
+     * @param rows Number of transactions to write
+     * @param output Path of the CSV file to create
+     * @throws IOException If writing fails
+     */
+    public void writeStatement(long rows, Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writeStatement(rows, writer);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticStatementGenerator <rows> <output.csv> [seed]");
+            return;
+        }
+        try {
+            long rows = Long.parseLong(args[0]);
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+            new SyntheticStatementGenerator(seed).writeStatement(rows, Path.of(args[1]));
+            System.out.println("Wrote " + rows + " transactions to " + args[1]);
+        } catch (Exception e) {
+            System.err.println("Error generating statement: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.afsar.xpence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TransactionStore is a compact columnar file of processed transactions, so reports can
+ * be rebuilt without re-reading the statement or running the classifier again.
+ *
+ * Each column is one contiguous little-endian array: a dictionary-encoded description
+ * (an int id per row into a table of distinct descriptions), the category as a byte,
+ * the signed amount in paise as a long and, when any row had a readable date, the
+ * date as an int epoch day (CsvReader.NO_DATE for rows without one). The
+ * file is memory-mapped when opened and the columns are read in place, so aggregate()
+ * is a sequential scan over two primitive arrays with no parsing, no objects per row
+ * and no classification.
+ *
+ * Layout: magic "XPTS", format version, row count, rows read from the statement
+ * (including skipped rows), rows skipped as duplicates, dictionary size, date flag, category names; then, each
+ * starting on an 8-byte boundary, the dictionary offsets and UTF-8 bytes, the
+ * description ids, the category bytes, the amounts and the dates.
+ */
+public class TransactionStore {
+
+    private static final int MAGIC = 0x58505453; // "XPTS"
+    private static final int VERSION = 2;
+    private static final int ALIGNMENT = 8;
+
+    private final String[] categoryNames;
+    private final int size;
+    private final long rowsRead;
+    private final long duplicateRows;
+    private final ByteBuffer dictionaryBytes;
+    private final IntBuffer dictionaryOffsets;  // [id], plus one trailing end offset
+    private final IntBuffer descriptionIds;
+    private final ByteBuffer categories;
+    private final LongBuffer amounts;
+    private final IntBuffer dates;              // null if no row had a date
+
+    private TransactionStore(String[] categoryNames, int size, long rowsRead, long duplicateRows,
+                             ByteBuffer dictionaryBytes, IntBuffer dictionaryOffsets, IntBuffer descriptionIds,
+                             ByteBuffer categories, LongBuffer amounts, IntBuffer dates) {
+        this.categoryNames = categoryNames;
+        this.size = size;
+        this.rowsRead = rowsRead;
+        this.duplicateRows = duplicateRows;
+        this.dictionaryBytes = dictionaryBytes;
+        this.dictionaryOffsets = dictionaryOffsets;
+        this.descriptionIds = descriptionIds;
+        this.categories = categories;
+        this.amounts = amounts;
+        this.dates = dates;
+    }
+
+    /**
+     * Collects processed transactions in memory, column by column. Not thread-safe:
+     * parallel workers each fill their own Builder and append() them in file order.
+     */
+    public static class Builder {
+        private final String[] categoryNames;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private String[] descriptions = new String[256];
+        private int[] descriptionIds = new int[1024];
+        private byte[] categories = new byte[1024];
+        private long[] amounts = new long[1024];
+        private int[] dates = new int[1024];
+        private int size;
+        private boolean hasDates;
+
+        /**
+         * @param categoryNames Category names in class index order (at most 256)
+         */
+        public Builder(String[] categoryNames) {
+            if (categoryNames.length > 256) {
+                throw new IllegalArgumentException("At most 256 categories fit a category byte: " + categoryNames.length);
+            }
+            this.categoryNames = categoryNames;
+        }
+
+        /**
+         * Adds one processed transaction.
+         *
+         * @param description The transaction description
+         * @param categoryIndex The predicted class index
+         * @param paise The signed amount in paise
+         * @param epochDay The date as days since 1970-01-01, or CsvReader.NO_DATE
+         */
+        public void add(String description, int categoryIndex, long paise, int epochDay) {
+            if (size == amounts.length) {
+                int capacity = size * 2;
+                descriptionIds = Arrays.copyOf(descriptionIds, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                dates = Arrays.copyOf(dates, capacity);
+            }
+            descriptionIds[size] = idOf(description);
+            categories[size] = (byte) categoryIndex;
+            amounts[size] = paise;
+            dates[size] = epochDay;
+            hasDates |= epochDay != CsvReader.NO_DATE;
+            size++;
+        }
+
+        /**
+         * Appends the rows of another builder after this one's.
+         *
+         * @param other Builder for the same categories
+         */
+        public void append(Builder other) {
+            if (!Arrays.equals(other.categoryNames, categoryNames)) {
+                throw new IllegalArgumentException("Cannot append transactions with different categories");
+            }
+            for (int i = 0; i < other.size; i++) {
+                add(other.descriptions[other.descriptionIds[i]], other.categories[i], other.amounts[i], other.dates[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Writes the store, replacing any existing file in one step.
+         *
+         * @param file Destination file
+         * @param rowsRead Rows read from the statement, including skipped ones
+         * @param duplicateRows Rows skipped as duplicates of earlier statements
+         * @throws IOException If the file cannot be written
+         */
+        public void save(Path file, long rowsRead, long duplicateRows) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024))) {
+                writeTo(out, rowsRead, duplicateRows);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        private void writeTo(DataOutputStream out, long rowsRead, long duplicateRows) throws IOException {
+            // DataOutputStream is big-endian, so the header is too; columns are little-endian
+            int distinct = dictionary.size();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeLong(rowsRead);
+            out.writeLong(duplicateRows);
+            out.writeInt(distinct);
+            out.writeBoolean(hasDates);
+            out.writeInt(categoryNames.length);
+            for (String name : categoryNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+
+            byte[][] encoded = new byte[distinct][];
+            int[] offsets = new int[distinct + 1];
+            for (int id = 0; id < distinct; id++) {
+                encoded[id] = descriptions[id].getBytes(StandardCharsets.UTF_8);
+                offsets[id + 1] = offsets[id] + encoded[id].length;
+            }
+
+            ByteBuffer scratch = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            pad(out);
+            for (int offset : offsets) {
+                scratch = putInt(out, scratch, offset);
+            }
+            flush(out, scratch);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+            pad(out);
+            for (int i = 0; i < size; i++) {
+                scratch = putInt(out, scratch, descriptionIds[i]);
+            }
+            flush(out, scratch);
+            pad(out);
+            out.write(categories, 0, size);
+            pad(out);
+            for (int i = 0; i < size; i++) {
+                if (scratch.remaining() < Long.BYTES) {
+                    flush(out, scratch);
+                }
+                scratch.putLong(amounts[i]);
+            }
+            flush(out, scratch);
+            if (hasDates) {
+                pad(out);
+                for (int i = 0; i < size; i++) {
+                    scratch = putInt(out, scratch, dates[i]);
+                }
+                flush(out, scratch);
+            }
+        }
+
+        private int idOf(String description) {
+            Integer id = dictionary.get(description);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(description, id);
+                if (id == descriptions.length) {
+                    descriptions = Arrays.copyOf(descriptions, id * 2);
+                }
+                descriptions[id] = description;
+            }
+            return id;
+        }
+
+        private static ByteBuffer putInt(DataOutputStream out, ByteBuffer scratch, int value) throws IOException {
+            if (scratch.remaining() < Integer.BYTES) {
+                flush(out, scratch);
+            }
+            return scratch.putInt(value);
+        }
+
+        private static void flush(DataOutputStream out, ByteBuffer scratch) throws IOException {
+            out.write(scratch.array(), 0, scratch.position());
+            scratch.clear();
+        }
+
+        private static void pad(DataOutputStream out) throws IOException {
+            while (out.size() % ALIGNMENT != 0) {
+                out.writeByte(0);
+            }
+        }
+    }
+
+    /**
+     * Opens a store through a memory-mapped read; the columns are not copied.
+     *
+     * @param file Path of the store file
+     * @return The store
+     * @throws IOException If the file cannot be read or has the wrong format
+     */
+    public static TransactionStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map (" + channel.size() + " bytes)");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException(file + " is not an xpence transaction store.");
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported transaction store version " + version + " in " + file);
+                }
+                int size = buffer.getInt();
+                long rowsRead = buffer.getLong();
+                long duplicateRows = buffer.getLong();
+                int distinct = buffer.getInt();
+                boolean hasDates = buffer.get() != 0;
+                String[] categoryNames = new String[buffer.getInt()];
+                for (int c = 0; c < categoryNames.length; c++) {
+                    byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(name);
+                    categoryNames[c] = new String(name, StandardCharsets.UTF_8);
+                }
+
+                align(buffer);
+                IntBuffer offsets = column(buffer, (distinct + 1L) * Integer.BYTES).asIntBuffer();
+                ByteBuffer dictionaryBytes = column(buffer, offsets.get(distinct));
+                align(buffer);
+                IntBuffer ids = column(buffer, size * (long) Integer.BYTES).asIntBuffer();
+                align(buffer);
+                ByteBuffer categories = column(buffer, size);
+                align(buffer);
+                LongBuffer amounts = column(buffer, size * (long) Long.BYTES).asLongBuffer();
+                IntBuffer dates = null;
+                if (hasDates) {
+                    align(buffer);
+                    dates = column(buffer, size * (long) Integer.BYTES).asIntBuffer();
+                }
+                return new TransactionStore(categoryNames, size, rowsRead, duplicateRows, dictionaryBytes, offsets,
+                                            ids, categories, amounts, dates);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt transaction store " + file + ": " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the statement totals from the stored amounts and categories.
+     *
+     * @return Totals equal to those of the run that wrote the store
+     */
+    public StatementTotals aggregate() {
+        StatementTotals totals = new StatementTotals(categoryNames);
+        for (int i = 0; i < size; i++) {
+            long paise = amounts.get(i);
+            if (paise < 0) {
+                totals.addExpense(categories.get(i) & 0xFF, -paise);
+            } else if (paise > 0) {
+                totals.addIncome(paise);
+            }
+        }
+        totals.countRows(rowsRead, size);
+        totals.countDuplicates(duplicateRows);
+        return totals;
+    }
+
+    /**
+     * Rebuilds the statement totals together with per month, week and merchant rollups.
+     *
+     * @param merchantCapacity Number of merchants kept exactly (see StatementRollups)
+     * @return Totals and rollups equal to those of a run with rollups enabled
+     */
+    public StatementTotals aggregate(int merchantCapacity) {
+        StatementTotals totals = aggregate();
+        StatementRollups rollups = totals.enableRollups(merchantCapacity);
+        String[] merchants = new String[getDistinctDescriptions()];
+        for (int i = 0; i < size; i++) {
+            int id = descriptionIds.get(i);
+            if (merchants[id] == null) {
+                merchants[id] = StatementRollups.merchantKey(getDescription(i));
+            }
+            rollups.addToMerchant(getEpochDay(i), categories.get(i) & 0xFF, amounts.get(i), merchants[id]);
+        }
+        return totals;
+    }
+
+    /**
+     * @return Number of stored transactions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Category names in class index order
+     */
+    public String[] getCategoryNames() {
+        return categoryNames.clone();
+    }
+
+    /**
+     * @return Number of distinct descriptions
+     */
+    public int getDistinctDescriptions() {
+        return dictionaryOffsets.limit() - 1;
+    }
+
+    public boolean hasDates() {
+        return dates != null;
+    }
+
+    public String getDescription(int row) {
+        int id = descriptionIds.get(row);
+        int start = dictionaryOffsets.get(id);
+        byte[] bytes = new byte[dictionaryOffsets.get(id + 1) - start];
+        dictionaryBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Dictionary id of the row's description; equal ids mean equal descriptions
+     */
+    public int getDescriptionId(int row) {
+        return descriptionIds.get(row);
+    }
+
+    public int getCategoryIndex(int row) {
+        return categories.get(row) & 0xFF;
+    }
+
+    /**
+     * @return The signed amount in paise (negative for expenses)
+     */
+    public long getAmountPaise(int row) {
+        return amounts.get(row);
+    }
+
+    /**
+     * @return The date as days since 1970-01-01, or CsvReader.NO_DATE
+     */
+    public int getEpochDay(int row) {
+        return dates == null ? CsvReader.NO_DATE : dates.get(row);
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+    }
+
+    /**
+     * @return A little-endian view of the next length bytes; the buffer moves past them
+     */
+    private static ByteBuffer column(ByteBuffer buffer, long length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("truncated column");
+        }
+        ByteBuffer slice = buffer.slice(buffer.position(), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + (int) length);
+        return slice;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+package com.afsar.xpence;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * XlsxReader reads the first sheet of an Excel workbook one row at a time and presents
+ * every row as a CsvReader record, so workbooks go through exactly the same row rules
+ * as CSV statements.
+ *
+ * The workbook is never loaded as a whole: XSSFReader hands out the sheet XML as a
+ * stream, and it is pulled one event at a time with StAX, so memory stays constant
+ * however many rows the sheet has. Only the shared strings table (every distinct text
+ * value in the workbook) and the cell styles are held in memory.
+ *
+ * Cells become text the way a CSV export would show them: text as is, numbers in their
+ * stored form (e.g. -1234.5) and date-formatted numbers as ISO dates (2025-07-30),
+ * which CsvReader.parseEpochDay() understands. Empty rows that the sheet leaves out
+ * entirely are not reported, and missing cells within a row read as empty fields.
+ */
+public class XlsxReader extends CsvReader {
+
+    static {
+        // POI logs through the Log4j API; without a Log4j backend on the classpath the API
+        // complains on stderr the first time it is used. Its built-in simple logger is
+        // enough for the odd error POI reports.
+        if (System.getProperty("log4j2.loggerContextFactory") == null) {
+            System.setProperty("log4j2.loggerContextFactory", "org.apache.logging.log4j.simple.SimpleLoggerContextFactory");
+        }
+    }
+
+    private final OPCPackage workbook;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final InputStream sheet;
+    private final XMLStreamReader xml;
+    private final Map<Integer, Boolean> dateStyles = new HashMap<>();
+    private final StringBuilder inlineText = new StringBuilder();
+
+    /**
+     * Opens the first sheet of a workbook.
+     *
+     * @param file The .xlsx file
+     * @throws IOException If the file cannot be opened or is not a valid workbook
+     */
+    public XlsxReader(Path file) throws IOException {
+        super(InputStream.nullInputStream());
+        OPCPackage opened = null;
+        InputStream sheetData = null;
+        try {
+            opened = OPCPackage.open(file.toFile(), PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(opened);
+            this.sharedStrings = new ReadOnlySharedStringsTable(opened, false);
+            this.styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("Workbook has no sheets: " + file);
+            }
+            sheetData = sheets.next();
+            this.xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(sheetData);
+        } catch (IOException | OpenXML4JException | SAXException | XMLStreamException | RuntimeException e) {
+            if (sheetData != null) {
+                sheetData.close();
+            }
+            if (opened != null) {
+                opened.revert();
+            }
+            throw e instanceof IOException io ? io : new IOException("Cannot read workbook " + file + ": " + e.getMessage(), e);
+        }
+        this.workbook = opened;
+        this.sheet = sheetData;
+    }
+
+    @Override
+    public boolean nextRecord() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("row")) {
+                    readRow();
+                    return true;
+                }
+            }
+            return false;
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed sheet XML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // Nothing to release beyond the stream closed below
+        } finally {
+            sheet.close();
+            workbook.revert(); // Opened read-only; nothing to save
+        }
+    }
+
+    /**
+     * Reads the cells of a row element into the current record.
+     */
+    private void readRow() throws XMLStreamException {
+        clearRecord();
+        int column = 0;
+        while (true) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("row")) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("c")) {
+                int cellColumn = columnOf(xml.getAttributeValue(null, "r"), column);
+                for (; column < cellColumn; column++) {
+                    addField(null); // Cells the sheet leaves out are empty
+                }
+                addField(readCell());
+                column++;
+            }
+        }
+        if (column == 0) {
+            addField(null); // An empty row reads as a blank line
+        }
+    }
+
+    /**
+     * Reads one cell element and returns its value as text.
+     */
+    private String readCell() throws XMLStreamException {
+        String type = xml.getAttributeValue(null, "t");
+        String style = xml.getAttributeValue(null, "s");
+        String value = null;
+        inlineText.setLength(0);
+        while (true) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("c")) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (xml.getLocalName().equals("v")) {
+                    value = xml.getElementText();
+                } else if (xml.getLocalName().equals("t")) {
+                    inlineText.append(xml.getElementText()); // Inline string, possibly in rich-text runs
+                }
+            }
+        }
+
+        if (type == null || type.equals("n")) {
+            return value == null ? null : formatNumber(value, style);
+        }
+        return switch (type) {
+            case "s" -> value == null ? null : sharedStrings.getItemAt(Integer.parseInt(value.trim())).getString();
+            case "inlineStr" -> inlineText.toString();
+            default -> value; // Formula strings, booleans, errors and ISO dates ("d") as stored
+        };
+    }
+
+    /**
+     * Formats a numeric cell: as an ISO date if its style is a date format, otherwise as
+     * the number exactly as stored.
+     */
+    private String formatNumber(String value, String style) {
+        if (style == null || styles == null || !isDateStyle(Integer.parseInt(style))) {
+            return value;
+        }
+        double serial = Double.parseDouble(value);
+        if (!DateUtil.isValidExcelDate(serial)) {
+            return value;
+        }
+        return DateUtil.getLocalDateTime(serial).toLocalDate().toString();
+    }
+
+    private boolean isDateStyle(int styleIndex) {
+        return dateStyles.computeIfAbsent(styleIndex, index -> {
+            XSSFCellStyle style = styles.getStyleAt(index);
+            return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+        });
+    }
+
+    /**
+     * Converts the column letters of a cell reference such as "AB12" to a zero-based
+     * column index.
+     *
+     * @param reference The cell reference, or null if the sheet omits it
+     * @param next The column to assume when there is no reference
+     */
+    private static int columnOf(String reference, int next) {
+        if (reference == null) {
+            return next;
+        }
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column == 0 ? next : Math.max(next, column - 1);
+    }
+}
\ No newline at end of file